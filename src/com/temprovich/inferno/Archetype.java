@@ -0,0 +1,83 @@
+package com.temprovich.inferno;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Every entity sharing the same set of component classes and tags. Family membership only
+ * depends on that set, so matching views and listeners are resolved once here
+ * instead of on every add and remove.
+ */
+final class Archetype {
+
+    final BitSet signature;
+    final Class<?>[] types;
+    final int[] tags;
+    final List<EntitySet> views;
+    final List<List<EntityListener>> listeners;
+    final List<OwningGroup> groups;
+
+    Archetype(final Entity entity) {
+        this.signature = (BitSet) entity.signature().clone();
+        this.tags = tags(signature);
+        this.types = new Class<?>[entity.getComponents().size() + tags.length];
+        this.views = new ArrayList<EntitySet>();
+        this.listeners = new ArrayList<List<EntityListener>>();
+        this.groups = new ArrayList<OwningGroup>();
+
+        int i = 0;
+        for (var component : entity.getComponents()) {
+            types[i++] = component.getClass();
+        }
+
+        for (int bit = signature.nextSetBit(0); bit >= 0; bit = signature.nextSetBit(bit + 1)) {
+            Class<?> type = ComponentType.type(bit);
+
+            if (ComponentType.isTag(type)) {
+                types[i++] = type;
+            }
+        }
+    }
+
+    private static int[] tags(final BitSet signature) {
+        int count = 0;
+
+        for (int bit = signature.nextSetBit(0); bit >= 0; bit = signature.nextSetBit(bit + 1)) {
+            if (ComponentType.isTag(ComponentType.type(bit))) {
+                count++;
+            }
+        }
+
+        int[] tags = new int[count];
+        int i = 0;
+
+        for (int bit = signature.nextSetBit(0); bit >= 0; bit = signature.nextSetBit(bit + 1)) {
+            if (ComponentType.isTag(ComponentType.type(bit))) {
+                tags[i++] = bit;
+            }
+        }
+
+        return tags;
+    }
+
+    boolean accepts(final Family family) {
+        for (var type : family) {
+            if (!contains(type)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean contains(final Class<?> type) {
+        for (var t : types) {
+            if (type.isAssignableFrom(t)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
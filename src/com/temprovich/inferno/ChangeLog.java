@@ -0,0 +1,124 @@
+package com.temprovich.inferno;
+
+import java.util.Arrays;
+
+/**
+ * Append-only record of the structural and value changes made to a registry,
+ * stamped with the registry sequence number they happened in. Unlike the tick,
+ * which a rollback moves back, sequence numbers never decrease, so the changes
+ * since one are a suffix of the log found by binary search.
+ */
+final class ChangeLog {
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    static final byte CREATE = 0;
+    static final byte DESTROY = 1;
+    static final byte CHANGE = 2;
+    static final byte FLAGS = 3;
+
+    private long[] sequences;
+    private byte[] kinds;
+    private Entity[] entities;
+    private int[] ids;
+    private int[] types;
+    private int size;
+
+    ChangeLog() {
+        this.sequences = new long[DEFAULT_INITIAL_CAPACITY];
+        this.kinds = new byte[DEFAULT_INITIAL_CAPACITY];
+        this.entities = new Entity[DEFAULT_INITIAL_CAPACITY];
+        this.ids = new int[DEFAULT_INITIAL_CAPACITY];
+        this.types = new int[DEFAULT_INITIAL_CAPACITY];
+        this.size = 0;
+    }
+
+    void record(final long sequence, final byte kind, final Entity entity, final int type) {
+        if (size == sequences.length) {
+            int capacity = (sequences.length * 3) / 2 + 1;
+            sequences = Arrays.copyOf(sequences, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+            entities = Arrays.copyOf(entities, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            types = Arrays.copyOf(types, capacity);
+        }
+
+        sequences[size] = sequence;
+        kinds[size] = kind;
+        entities[size] = entity;
+        ids[size] = entity.id;
+        types[size] = type;
+        size++;
+    }
+
+    // index of the first change made at or after the sequence
+    int first(final long sequence) {
+        int lo = 0;
+        int hi = size;
+
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+
+            if (sequences[mid] < sequence) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        return lo;
+    }
+
+    // forgets every change made before the sequence
+    void trim(final long sequence) {
+        int from = first(sequence);
+
+        if (from == 0) {
+            return;
+        }
+
+        int n = size - from;
+        System.arraycopy(sequences, from, sequences, 0, n);
+        System.arraycopy(kinds, from, kinds, 0, n);
+        System.arraycopy(entities, from, entities, 0, n);
+        System.arraycopy(ids, from, ids, 0, n);
+        System.arraycopy(types, from, types, 0, n);
+        Arrays.fill(entities, n, size, null);
+        size = n;
+    }
+
+    // drops the changes recorded after the first size ones
+    void truncate(final int size) {
+        Arrays.fill(entities, size, this.size, null);
+        this.size = size;
+    }
+
+    void clear() {
+        Arrays.fill(entities, 0, size, null);
+        size = 0;
+    }
+
+    long sequence(final int i) {
+        return sequences[i];
+    }
+
+    byte kind(final int i) {
+        return kinds[i];
+    }
+
+    Entity entity(final int i) {
+        return entities[i];
+    }
+
+    int id(final int i) {
+        return ids[i];
+    }
+
+    int type(final int i) {
+        return types[i];
+    }
+
+    int size() {
+        return size;
+    }
+}
@@ -0,0 +1,32 @@
+package com.temprovich.inferno;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary encoding of one component type, registered once per type through
+ * {@link Registry#registerCodec}. A codec must read back exactly the bytes it
+ * wrote; it may throw {@link java.nio.BufferOverflowException} when the buffer is
+ * full, in which case the write is retried with more room.
+ */
+public interface Codec<T> {
+
+    public abstract void write(T value, ByteBuffer out);
+
+    public abstract T read(ByteBuffer in);
+
+    /**
+     * Decodes into an existing instance. Needed to apply changes to a component that
+     * is already attached to a registered entity.
+     */
+    public default void read(ByteBuffer in, T target) {
+        throw new UnsupportedOperationException(getClass().getName() + " cannot decode in place");
+    }
+
+    /**
+     * Generates a codec for a type with a no-argument constructor whose instance
+     * fields are primitives or strings.
+     */
+    public static <T> Codec<T> of(final Class<T> type) {
+        return new ReflectiveCodec<T>(type);
+    }
+}
@@ -36,4 +36,25 @@ public abstract class Component {
     }
 
     public void onDisable() {}
+
+    /**
+     * Called when a registry pools this component after its entity is destroyed.
+     * Implementations clear whatever state a new instance would not have.
+     */
+    public void onReset() {}
+
+    /**
+     * Makes this component a copy of the source, which has the same type, for
+     * prefabs and mirrors. By default the fields are assigned directly, which
+     * throws {@link IllegalArgumentException} for types with final fields or
+     * references to mutable objects other than primitive arrays; those override
+     * this method without calling it.
+     */
+    public void copyFrom(final Component source) {
+        if (source.getClass() != getClass()) {
+            throw new IllegalArgumentException("Cannot copy " + source.getClass().getName() + " into " + getClass().getName());
+        }
+
+        ComponentCopier.of(getClass()).copyFields(this, source);
+    }
 }
@@ -0,0 +1,194 @@
+package com.temprovich.inferno;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Set;
+
+/**
+ * Copy routine compiled once per component type: the no-arg constructor followed
+ * by one method handle that assigns every instance field of the source to the
+ * copy. Primitive arrays are copied, immutable values are shared. Types with
+ * final fields or other references cannot be copied field by field and must
+ * override {@link Component#copyFrom}, which is then used instead.
+ */
+final class ComponentCopier {
+
+    private static final MethodType COPY = MethodType.methodType(void.class, Object.class, Object.class);
+
+    // reference types whose instances can be shared between copies
+    private static final Set<Class<?>> IMMUTABLE = Set.of(String.class, Boolean.class, Character.class, Byte.class,
+                                                          Short.class, Integer.class, Long.class, Float.class, Double.class);
+
+    private static final MethodHandle COPY_ARRAY;
+
+    static {
+        try {
+            COPY_ARRAY = MethodHandles.lookup().findStatic(ComponentCopier.class, "copyArray", MethodType.methodType(Object.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final ClassValue<ComponentCopier> copiers = new ClassValue<ComponentCopier>() {
+
+        @Override
+        protected ComponentCopier computeValue(final Class<?> type) {
+            return new ComponentCopier(type);
+        }
+    };
+
+    private final MethodHandle constructor;
+    private final MethodHandle copy;
+    private final boolean hook;
+
+    // why the type cannot be copied field by field, null when it can
+    private final String problem;
+
+    private ComponentCopier(final Class<?> type) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+            Constructor<?> ctor = constructorOf(type);
+            MethodHandle copy = MethodHandles.empty(COPY);
+            String problem = null;
+
+            this.hook = type.getMethod("copyFrom", Component.class).getDeclaringClass() != Component.class;
+
+            for (Class<?> c = type; !hook && c != null && c != Object.class && c != Component.class; c = c.getSuperclass()) {
+                for (var field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+
+                    if (Modifier.isStatic(modifiers)) {
+                        continue;
+                    }
+                    if (Modifier.isFinal(modifiers)) {
+                        problem = "final field " + field.getName();
+                        break;
+                    }
+
+                    MethodHandle getter = lookup.unreflectGetter(field);
+
+                    if (isPrimitiveArray(field.getType())) {
+                        getter = MethodHandles.filterReturnValue(getter, COPY_ARRAY.asType(MethodType.methodType(field.getType(), field.getType())));
+                    } else if (!isShared(field)) {
+                        problem = "mutable field " + field.getName();
+                        break;
+                    }
+
+                    // (copy, source) -> copy.field = source.field
+                    MethodHandle assign = MethodHandles.filterArguments(lookup.unreflectSetter(field), 1, getter);
+                    copy = MethodHandles.foldArguments(copy, assign.asType(COPY));
+                }
+            }
+
+            this.constructor = ctor == null ? null : lookup.unreflectConstructor(ctor).asType(MethodType.methodType(Object.class));
+            this.copy = copy;
+            this.problem = ctor == null ? "Cannot copy " + type.getName() + " without a no-arg constructor"
+                         : problem == null ? null : "Cannot copy " + type.getName() + " with " + problem + ", override Component.copyFrom";
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot copy " + type.getName(), e);
+        }
+    }
+
+    static Component copy(final Component source) {
+        return copiers.get(source.getClass()).copyOf(source);
+    }
+
+    static ComponentCopier of(final Class<?> type) {
+        return copiers.get(type);
+    }
+
+    /**
+     * Fails for types that cannot be copied, so that they are rejected up front
+     * rather than at the first copy.
+     */
+    void check() {
+        if (problem != null) {
+            throw new IllegalArgumentException(problem);
+        }
+    }
+
+    boolean canCopy() {
+        return problem == null;
+    }
+
+    Component copyOf(final Component source) {
+        return copyInto(newInstance(), source);
+    }
+
+    Component newInstance() {
+        if (constructor == null) {
+            throw new IllegalArgumentException(problem);
+        }
+
+        try {
+            return (Component) (Object) constructor.invokeExact();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // overwrites the target's fields, used to fill pooled instances
+    Component copyInto(final Component target, final Component source) {
+        if (hook) {
+            target.copyFrom(source);
+            return target;
+        }
+
+        return copyFields(target, source);
+    }
+
+    // the default Component.copyFrom
+    Component copyFields(final Component target, final Component source) {
+        if (hook) {
+            throw new IllegalStateException(target.getClass().getName() + " overrides copyFrom, its fields are not copied by default");
+        }
+
+        check();
+
+        try {
+            this.copy.invokeExact((Object) target, (Object) source);
+            return target;
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Constructor<?> constructorOf(final Class<?> type) {
+        try {
+            Constructor<?> ctor = type.getDeclaredConstructor();
+            ctor.setAccessible(true);
+            return ctor;
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static boolean isPrimitiveArray(final Class<?> type) {
+        return type.isArray() && type.getComponentType().isPrimitive();
+    }
+
+    private static boolean isShared(final Field field) {
+        Class<?> type = field.getType();
+        return type.isPrimitive() || type.isEnum() || IMMUTABLE.contains(type);
+    }
+
+    private static Object copyArray(final Object array) {
+        if (array == null) {
+            return null;
+        }
+
+        int length = Array.getLength(array);
+        Object copy = Array.newInstance(array.getClass().getComponentType(), length);
+        System.arraycopy(array, 0, copy, 0, length);
+        return copy;
+    }
+}
@@ -0,0 +1,247 @@
+package com.temprovich.inferno;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.temprovich.inferno.util.Bag;
+
+/**
+ * Hash index from a key derived from one component type to the entities carrying
+ * it. The registry keeps the index current as entities are added, destroyed and
+ * released; value changes are picked up through {@link Registry#changed} or
+ * {@link Registry#patch}. A unique index rejects a second entity with the same key.
+ */
+public final class ComponentIndex<T extends Component, K> implements EntityListener {
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    private final Class<T> type;
+    private final Function<? super T, ? extends K> key;
+    private final boolean unique;
+
+    private final Map<K, Entity> entities;
+    private final Map<K, Bag<Entity>> groups;
+
+    // key each entity is currently filed under, by id
+    private Object[] keys;
+    private boolean[] indexed;
+    private int size;
+
+    // set while a rollback rewrites the world, which is filed again afterwards
+    private boolean suspended;
+
+    ComponentIndex(Class<T> type, Function<? super T, ? extends K> key, boolean unique) {
+        this.type = type;
+        this.key = key;
+        this.unique = unique;
+        this.entities = unique ? new HashMap<K, Entity>() : null;
+        this.groups = unique ? null : new HashMap<K, Bag<Entity>>();
+        this.keys = new Object[DEFAULT_INITIAL_CAPACITY];
+        this.indexed = new boolean[DEFAULT_INITIAL_CAPACITY];
+        this.size = 0;
+        this.suspended = false;
+    }
+
+    @Override
+    public void onEntityAdd(Entity entity) {
+        if (suspended) {
+            return;
+        }
+
+        int id = entity.id;
+
+        if (id >= keys.length) {
+            int capacity = Math.max(id + 1, (keys.length * 3) / 2 + 1);
+            keys = Arrays.copyOf(keys, capacity);
+            indexed = Arrays.copyOf(indexed, capacity);
+        }
+
+        file(entity, keyOf(entity));
+        size++;
+    }
+
+    @Override
+    public void onEntityRemove(Entity entity) {
+        int id = entity.id;
+
+        if (suspended || id < 0 || id >= keys.length || !indexed[id]) {
+            return;
+        }
+
+        unfile(entity);
+        size--;
+    }
+
+    public Entity get(final K key) {
+        if (unique) {
+            return entities.get(key);
+        }
+
+        Bag<Entity> group = groups.get(key);
+        return group == null || group.isEmpty() ? null : group.get(0);
+    }
+
+    public Collection<Entity> getAll(final K key) {
+        if (unique) {
+            Entity entity = entities.get(key);
+            return entity == null ? Collections.<Entity>emptyList() : Collections.singletonList(entity);
+        }
+
+        Bag<Entity> group = groups.get(key);
+        return group == null ? Collections.<Entity>emptyList() : Collections.unmodifiableCollection(group);
+    }
+
+    public int count(final K key) {
+        if (unique) {
+            return entities.containsKey(key) ? 1 : 0;
+        }
+
+        Bag<Entity> group = groups.get(key);
+        return group == null ? 0 : group.size();
+    }
+
+    public boolean contains(final K key) {
+        return count(key) > 0;
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    public boolean isUnique() {
+        return unique;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // throws if adding the entity would break uniqueness
+    void check(final Entity entity) {
+        if (!unique || suspended) {
+            return;
+        }
+
+        K k = keyOf(entity);
+        Entity other = entities.get(k);
+
+        if (other != null && other != entity) {
+            throw new IllegalArgumentException("Duplicate key " + k + " in unique index on " + type.getSimpleName());
+        }
+    }
+
+    // throws if adding the batch would break uniqueness, also among its entities
+    void check(final Entity[] batch, final int from, final int to) {
+        if (!unique || suspended) {
+            return;
+        }
+
+        Map<K, Entity> keys = new HashMap<K, Entity>();
+
+        for (int i = from; i < to; i++) {
+            Entity entity = batch[i];
+
+            if (!entity.has(type)) {
+                continue;
+            }
+
+            check(entity);
+
+            K k = keyOf(entity);
+
+            if (keys.put(k, entity) != null) {
+                throw new IllegalArgumentException("Duplicate key " + k + " in unique index on " + type.getSimpleName());
+            }
+        }
+    }
+
+    void update(final Entity entity) {
+        int id = entity.id;
+
+        if (suspended || id < 0 || id >= keys.length || !indexed[id]) {
+            return;
+        }
+
+        K k = keyOf(entity);
+
+        if (k == null ? keys[id] == null : k.equals(keys[id])) {
+            return;
+        }
+
+        check(entity);
+        unfile(entity);
+        file(entity, k);
+    }
+
+    // stops following the registry until rebuilt
+    void suspend() {
+        suspended = true;
+    }
+
+    // files every entity carrying the type from scratch
+    void rebuild(final Iterable<Entity> all) {
+        suspended = false;
+
+        if (unique) {
+            entities.clear();
+        } else {
+            groups.clear();
+        }
+
+        Arrays.fill(keys, null);
+        Arrays.fill(indexed, false);
+        size = 0;
+
+        for (var entity : all) {
+            if (entity.has(type)) {
+                onEntityAdd(entity);
+            }
+        }
+    }
+
+    private K keyOf(final Entity entity) {
+        return key.apply(entity.get(type));
+    }
+
+    private void file(final Entity entity, final K k) {
+        if (unique) {
+            check(entity);
+            entities.put(k, entity);
+        } else {
+            Bag<Entity> group = groups.get(k);
+
+            if (group == null) {
+                group = new Bag<Entity>(4);
+                groups.put(k, group);
+            }
+
+            group.add(entity);
+        }
+
+        keys[entity.id] = k;
+        indexed[entity.id] = true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void unfile(final Entity entity) {
+        K k = (K) keys[entity.id];
+
+        if (unique) {
+            entities.remove(k, entity);
+        } else {
+            Bag<Entity> group = groups.get(k);
+            group.remove(entity);
+
+            if (group.isEmpty()) {
+                groups.remove(k);
+            }
+        }
+
+        keys[entity.id] = null;
+        indexed[entity.id] = false;
+    }
+}
@@ -0,0 +1,45 @@
+package com.temprovich.inferno;
+
+import java.util.Arrays;
+
+final class ComponentType {
+
+    // copied on write so that lookups by index need no lock
+    private static volatile Class<?>[] types = new Class<?>[0];
+
+    private static final ClassValue<Integer> indices = new ClassValue<Integer>() {
+        
+        @Override
+        protected Integer computeValue(final Class<?> type) {
+            return assign(type);
+        }
+    };
+
+    private ComponentType() {}
+
+    static int index(final Class<?> type) {
+        return indices.get(type);
+    }
+
+    static Class<?> type(final int index) {
+        return types[index];
+    }
+
+    static boolean isTag(final Class<?> type) {
+        return Tag.class.isAssignableFrom(type);
+    }
+
+    private static synchronized int assign(final Class<?> type) {
+        // ClassValue may compute a value more than once under contention
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == type) {
+                return i;
+            }
+        }
+
+        Class<?>[] grown = Arrays.copyOf(types, types.length + 1);
+        grown[types.length] = type;
+        types = grown;
+        return types.length - 1;
+    }
+}
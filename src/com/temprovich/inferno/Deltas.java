@@ -0,0 +1,297 @@
+package com.temprovich.inferno;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact delta records built from a registry's change log. Only the changes made
+ * since the requested sequence number are visited and coalesced per entity, so
+ * the cost is proportional to what changed rather than to the size of the world.
+ * Entities are identified by their id in the source registry.
+ *
+ * <pre>
+ * int magic, int version, long since, long sequence, long tick,
+ * int typeCount, typeCount * string name
+ * int destroyed, destroyed * int id
+ * int created, per entity: int id, int flags, int k, k * int type, components
+ * int changed, per entity: int id, int flags, int tags, tags * int type,
+ *                          int components, components * (int type, component)
+ * </pre>
+ */
+final class Deltas {
+
+    static final int MAGIC = 0x494E4644;
+    static final int VERSION = 2;
+
+    private Deltas() {}
+
+    static void write(final Registry registry, final ChangeLog log, final long since, final long sequence, final Snapshots.Output out) {
+        Map<Entity, Pending> pending = new IdentityHashMap<Entity, Pending>();
+        List<Pending> order = new ArrayList<Pending>();
+
+        for (int i = log.first(since); i < log.size(); i++) {
+            Entity entity = log.entity(i);
+            Pending p = pending.get(entity);
+
+            if (p == null) {
+                p = new Pending(entity);
+                pending.put(entity, p);
+                order.add(p);
+            }
+
+            switch (log.kind(i)) {
+                case ChangeLog.CREATE:
+                    p.created = true;
+                    p.changed.clear();
+                    break;
+                case ChangeLog.DESTROY:
+                    // an entity both created and destroyed in the window never existed for the reader
+                    if (p.created) {
+                        p.created = false;
+                    } else if (p.destroyed < 0) {
+                        p.destroyed = log.id(i);
+                    }
+                    p.changed.clear();
+                    p.flags = false;
+                    break;
+                case ChangeLog.CHANGE:
+                    p.changed.set(log.type(i));
+                    break;
+                default:
+                    p.flags = true;
+                    break;
+            }
+        }
+
+        emit(registry, order, since, sequence, out);
+    }
+
+    // the whole registry as one delta that creates every entity
+    static void writeFull(final Registry registry, final long sequence, final Snapshots.Output out) {
+        List<Pending> order = new ArrayList<Pending>(registry.size());
+
+        for (var entity : registry) {
+            Pending p = new Pending(entity);
+            p.created = true;
+            order.add(p);
+        }
+
+        emit(registry, order, -1L, sequence, out);
+    }
+
+    private static void emit(final Registry registry, final List<Pending> order, final long since, final long sequence, final Snapshots.Output out) {
+        Map<Class<?>, Integer> types = new LinkedHashMap<Class<?>, Integer>();
+        int destroyed = 0;
+        int created = 0;
+        int changed = 0;
+
+        for (var p : order) {
+            boolean alive = p.entity.getRegistry() == registry && p.entity.id >= 0;
+
+            if (p.destroyed >= 0) {
+                destroyed++;
+            }
+            if (!alive) {
+                p.created = false;
+                continue;
+            }
+            if (p.created) {
+                created++;
+
+                for (var type : Snapshots.typesOf(p.entity.archetype)) {
+                    typeRef(types, type);
+                }
+            } else if (p.flags || !p.changed.isEmpty()) {
+                changed++;
+
+                for (var type : Snapshots.typesOf(p.entity.archetype)) {
+                    if (ComponentType.isTag(type)) {
+                        typeRef(types, type);
+                    }
+                }
+                for (int bit = p.changed.nextSetBit(0); bit >= 0; bit = p.changed.nextSetBit(bit + 1)) {
+                    typeRef(types, ComponentType.type(bit));
+                }
+            }
+        }
+
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putLong(since);
+        out.putLong(sequence);
+        out.putLong(registry.getTick());
+        out.putInt(types.size());
+
+        for (var type : types.keySet()) {
+            out.putString(type.getName());
+        }
+
+        out.putInt(destroyed);
+
+        for (var p : order) {
+            if (p.destroyed >= 0) {
+                out.putInt(p.destroyed);
+            }
+        }
+
+        out.putInt(created);
+
+        for (var p : order) {
+            if (!p.created) {
+                continue;
+            }
+
+            Class<?>[] entityTypes = Snapshots.typesOf(p.entity.archetype);
+            out.putInt(p.entity.id);
+            out.putInt(p.entity.flags);
+            out.putInt(entityTypes.length);
+
+            for (var type : entityTypes) {
+                out.putInt(types.get(type));
+            }
+
+            for (var type : entityTypes) {
+                if (!ComponentType.isTag(type)) {
+                    out.encode(registry.codec(type), p.entity.get(type.asSubclass(Component.class)));
+                }
+            }
+        }
+
+        out.putInt(changed);
+
+        for (var p : order) {
+            if (p.created || p.entity.getRegistry() != registry || p.entity.id < 0 || (!p.flags && p.changed.isEmpty())) {
+                continue;
+            }
+
+            out.putInt(p.entity.id);
+            out.putInt(p.entity.flags);
+
+            List<Class<?>> tags = new ArrayList<Class<?>>();
+
+            for (var type : Snapshots.typesOf(p.entity.archetype)) {
+                if (ComponentType.isTag(type)) {
+                    tags.add(type);
+                }
+            }
+
+            out.putInt(tags.size());
+
+            for (var tag : tags) {
+                out.putInt(types.get(tag));
+            }
+
+            out.putInt(p.changed.cardinality());
+
+            for (int bit = p.changed.nextSetBit(0); bit >= 0; bit = p.changed.nextSetBit(bit + 1)) {
+                Class<?> type = ComponentType.type(bit);
+                out.putInt(types.get(type));
+                out.encode(registry.codec(type), p.entity.get(type.asSubclass(Component.class)));
+            }
+        }
+    }
+
+    private static void typeRef(final Map<Class<?>, Integer> types, final Class<?> type) {
+        if (!types.containsKey(type)) {
+            types.put(type, types.size());
+        }
+    }
+
+    private static final class Pending {
+
+        final Entity entity;
+        final BitSet changed;
+        boolean created;
+        boolean flags;
+        int destroyed;
+
+        Pending(Entity entity) {
+            this.entity = entity;
+            this.changed = new BitSet();
+            this.created = false;
+            this.flags = false;
+            this.destroyed = -1;
+        }
+    }
+
+    // applies one delta, advancing the buffer past it
+    static long read(final Replica replica, final ByteBuffer in) {
+        if (in.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a registry delta");
+        }
+
+        int version = in.getInt();
+
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported delta version " + version);
+        }
+
+        // a delta since nothing holds the whole source and replaces what the replica has
+        if (in.getLong() < 0L) {
+            replica.clear();
+        }
+
+        long sequence = in.getLong();
+        replica.setTick(in.getLong());
+        Class<?>[] types = new Class<?>[in.getInt()];
+
+        for (int t = 0; t < types.length; t++) {
+            types[t] = Snapshots.resolve(ReflectiveCodec.readString(in));
+        }
+
+        for (int i = in.getInt(); i > 0; i--) {
+            replica.destroy(in.getInt());
+        }
+
+        for (int i = in.getInt(); i > 0; i--) {
+            int id = in.getInt();
+            int flags = in.getInt();
+            int k = in.getInt();
+            Class<?>[] entityTypes = new Class<?>[k];
+            int components = 0;
+
+            for (int t = 0; t < k; t++) {
+                entityTypes[t] = types[in.getInt()];
+                components += ComponentType.isTag(entityTypes[t]) ? 0 : 1;
+            }
+
+            Entity entity = new Entity(components);
+            entity.flags = flags;
+
+            for (var type : entityTypes) {
+                if (ComponentType.isTag(type)) {
+                    entity.signature().set(ComponentType.index(type));
+                } else {
+                    entity.attach((Component) replica.codec(type).read(in));
+                }
+            }
+
+            replica.create(id, entity);
+        }
+
+        for (int i = in.getInt(); i > 0; i--) {
+            Entity entity = replica.get(in.getInt());
+            entity.setFlags(in.getInt());
+
+            BitSet tags = new BitSet();
+
+            for (int t = in.getInt(); t > 0; t--) {
+                tags.set(ComponentType.index(types[in.getInt()]));
+            }
+
+            Replica.retag(entity, tags);
+
+            for (int c = in.getInt(); c > 0; c--) {
+                Class<?> type = types[in.getInt()];
+                replica.update(entity, type, in);
+            }
+        }
+
+        return sequence;
+    }
+}
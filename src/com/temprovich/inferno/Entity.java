@@ -1,6 +1,7 @@
 package com.temprovich.inferno;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -11,6 +12,8 @@ import com.temprovich.inferno.util.Bag;
 
 public final class Entity implements Iterable<Component> {
 
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
     public int flags;
     
     private Registry registry;
@@ -19,16 +22,34 @@ public final class Entity implements Iterable<Component> {
     
     private Bag<Component> components;
     private Map<Class<?>, Component> componentMap;
+    private final BitSet signature;
+
+    Archetype archetype;
+    int id;
+
+    // the pool holding this shell and its place there, while pooled
+    Pool pool;
+    int slot;
+
+    // registry change count at the last change recorded for this entity
+    long version;
 
     private boolean enabled;
     
     Entity() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    // sized for bulk creation, where the component count is known up front
+    Entity(int capacity) {
         this.flags = 0;
         this.registry = null;
         this.onComponentAdd = new Signal<Entity>();
         this.onComponentRemove = new Signal<Entity>();
-        this.components = new Bag<Component>();
+        this.components = new Bag<Component>(capacity);
         this.componentMap = new HashMap<Class<?>, Component>();
+        this.signature = new BitSet();
+        this.id = -1;
         this.enabled = false;
     }
 
@@ -39,6 +60,8 @@ public final class Entity implements Iterable<Component> {
         this.onComponentRemove = entity.onComponentRemove;
         this.components = new Bag<Component>(entity.components.size());
         this.componentMap = new HashMap<Class<?>, Component>(entity.componentMap.size());
+        this.signature = (BitSet) entity.signature.clone();
+        this.id = -1;
 
         for (var component : entity.components) {
             this.components.add(component);
@@ -60,6 +83,7 @@ public final class Entity implements Iterable<Component> {
         }
         
         components.add(component);
+        signature.set(ComponentType.index(component.getClass()));
         component.setParent(this);
         onComponentAdd.dispatch(this);
 
@@ -70,6 +94,17 @@ public final class Entity implements Iterable<Component> {
         return this;
     }
 
+    // add for a freshly created entity: nobody can be listening to its signals yet
+    final void attach(final Component component) {
+        if (component.getParent() != null) {
+            throw new IllegalArgumentException("Component already added to an entity");
+        }
+
+        components.add(component);
+        signature.set(ComponentType.index(component.getClass()));
+        component.setParent(this);
+    }
+
     public final Entity addAll(final Component... components) {
         for (var c : components) {
             add(c);
@@ -87,6 +122,9 @@ public final class Entity implements Iterable<Component> {
     }
 
     public final boolean has(final Class<?> componentClass) {
+        if (ComponentType.isTag(componentClass)) {
+            return signature.get(ComponentType.index(componentClass));
+        }
         if (componentMap.containsKey(componentClass)) {
             return true;
         }
@@ -170,6 +208,7 @@ public final class Entity implements Iterable<Component> {
         T component = get(componentClass);
 
         components.remove(component);
+        unmark(component);
         component.setParent(null);
         onComponentRemove.dispatch(this);
 
@@ -192,6 +231,7 @@ public final class Entity implements Iterable<Component> {
         }
 
         components.remove(component);
+        unmark(component);
         component.setParent(null);
 
         if (enabled && component.isEnabled()) {
@@ -203,15 +243,109 @@ public final class Entity implements Iterable<Component> {
         return component;
     }
 
+    /**
+     * Sets a tag on this entity. On a registered entity the change moves it between
+     * views, so while the registry updates it is applied once the systems ran, like
+     * adding and destroying; until then {@link #hasTag} reports the old state.
+     */
+    public final Entity tag(final Class<? extends Tag> type) {
+        if (registry != null) {
+            registry.retag(this, type, true);
+        } else {
+            signature.set(ComponentType.index(type));
+        }
+
+        return this;
+    }
+
+    /**
+     * Clears a tag, deferred like {@link #tag} while the registry updates.
+     */
+    public final Entity untag(final Class<? extends Tag> type) {
+        if (registry != null) {
+            registry.retag(this, type, false);
+        } else {
+            signature.clear(ComponentType.index(type));
+        }
+
+        return this;
+    }
+
+    // tags set or cleared during an update only show once the systems ran
+    public final boolean hasTag(final Class<? extends Tag> type) {
+        return signature.get(ComponentType.index(type));
+    }
+
+    private void unmark(final Component component) {
+        componentMap.values().removeIf(c -> c == component);
+
+        for (var c : components) {
+            if (c.getClass() == component.getClass()) {
+                return;
+            }
+        }
+
+        signature.clear(ComponentType.index(component.getClass()));
+    }
+
     void flush() {
+        flush(null);
+    }
+
+    // detaches every component, handing them to the pool when there is one
+    void flush(final Pool pool) {
         for (var component : components) {
             component.setParent(null);
             component.disable();
             onComponentRemove.dispatch(this);
+
+            if (pool != null) {
+                pool.recycle(component);
+            }
         }
         
         components.clear();
         componentMap.clear();
+        signature.clear();
+    }
+
+    // returns a flushed shell to the state of a new entity
+    void reset() {
+        flags = 0;
+        id = -1;
+        onComponentAdd.clear();
+        onComponentRemove.clear();
+    }
+
+    /**
+     * Replaces the flags. Unlike writing {@link #flags} directly this keeps the
+     * registry's flag indices up to date.
+     */
+    public final Entity setFlags(final int flags) {
+        int old = this.flags;
+        this.flags = flags;
+
+        if (registry != null && old != flags) {
+            registry.flagsChanged(this, old);
+        }
+
+        return this;
+    }
+
+    public final Entity addFlags(final int mask) {
+        return setFlags(flags | mask);
+    }
+
+    public final Entity removeFlags(final int mask) {
+        return setFlags(flags & ~mask);
+    }
+
+    public final boolean hasFlags(final int mask) {
+        return (flags & mask) == mask;
+    }
+
+    public int getId() {
+        return id;
     }
 
     public Registry getRegistry() {
@@ -262,6 +396,10 @@ public final class Entity implements Iterable<Component> {
         return this;
     }
 
+    BitSet signature() {
+        return signature;
+    }
+
     public Bag<Component> getComponents() {
         return components;
     }
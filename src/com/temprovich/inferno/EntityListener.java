@@ -5,4 +5,20 @@ public interface EntityListener {
     public void onEntityAdd(Entity entity);
     
     public void onEntityRemove(Entity entity);
+
+    /**
+     * Called once for entities added together, in place of one
+     * {@link #onEntityAdd} per entity, which is what it does by default.
+     */
+    public default void onEntitiesAdd(Entity[] entities, int from, int to) {
+        for (int i = from; i < to; i++) {
+            onEntityAdd(entities[i]);
+        }
+    }
+
+    public default void onEntitiesRemove(Entity[] entities, int from, int to) {
+        for (int i = from; i < to; i++) {
+            onEntityRemove(entities[i]);
+        }
+    }
 }
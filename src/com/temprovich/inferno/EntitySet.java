@@ -0,0 +1,186 @@
+package com.temprovich.inferno;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Live, densely packed storage of the entities matching a family. Entities are
+ * located through their registry id, so insertion and removal are O(1); removal
+ * swaps the last entity into the vacated slot and therefore does not keep order.
+ * <p>
+ * The set is read-only to everyone but its registry: the list operations that
+ * would modify it throw {@link UnsupportedOperationException}. Its iterators fail
+ * fast with a {@link java.util.ConcurrentModificationException} once the set
+ * changes. Code that destroys entities while walking the set by index should walk
+ * it backwards, so that the entity swapped into a vacated slot has already been
+ * visited.
+ */
+public final class EntitySet extends AbstractList<Entity> implements RandomAccess {
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    public static final EntitySet EMPTY = new EntitySet(0);
+
+    private Entity[] dense;
+    private int[] sparse;
+    private int size;
+    private long epoch;
+
+    EntitySet() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    EntitySet(int initialCapacity) {
+        this.dense = new Entity[initialCapacity];
+        this.sparse = new int[initialCapacity];
+        this.size = 0;
+        this.epoch = 0L;
+    }
+
+    void insert(final Entity entity) {
+        if (size == dense.length) {
+            dense = Arrays.copyOf(dense, (dense.length * 3) / 2 + 1);
+        }
+        if (entity.id >= sparse.length) {
+            sparse = Arrays.copyOf(sparse, Math.max(entity.id + 1, (sparse.length * 3) / 2 + 1));
+        }
+
+        sparse[entity.id] = size;
+        dense[size++] = entity;
+        epoch++;
+        modCount++;
+    }
+
+    // appends a run of entities with a single copy; ids[i] is the id of batch[from + i]
+    void insertAll(final Entity[] batch, final int[] ids, final int from, final int to) {
+        int n = to - from;
+        int maxId = -1;
+
+        for (int i = 0; i < n; i++) {
+            maxId = Math.max(maxId, ids[i]);
+        }
+
+        if (size + n > dense.length) {
+            dense = Arrays.copyOf(dense, Math.max(size + n, (dense.length * 3) / 2 + 1));
+        }
+        if (maxId >= sparse.length) {
+            sparse = Arrays.copyOf(sparse, Math.max(maxId + 1, (sparse.length * 3) / 2 + 1));
+        }
+
+        System.arraycopy(batch, from, dense, size, n);
+
+        for (int i = 0; i < n; i++) {
+            sparse[ids[i]] = size + i;
+        }
+
+        size += n;
+        epoch += n;
+        modCount++;
+    }
+
+    boolean erase(final Entity entity) {
+        int index = indexOf(entity);
+
+        if (index < 0) {
+            return false;
+        }
+
+        Entity last = dense[--size];
+        dense[index] = last;
+        sparse[last.id] = index;
+        dense[size] = null;
+        epoch++;
+        modCount++;
+
+        return true;
+    }
+
+    void reset() {
+        Arrays.fill(dense, 0, size, null);
+        epoch += size;
+        modCount++;
+        size = 0;
+    }
+
+    // removes every entity whose id carries the mark in one pass, keeping the
+    // order of the others
+    void eraseMarked(final long[] marks, final long mark) {
+        int kept = 0;
+
+        for (int i = 0; i < size; i++) {
+            Entity entity = dense[i];
+            int id = entity.id;
+
+            if (id < marks.length && marks[id] == mark) {
+                continue;
+            }
+
+            dense[kept] = entity;
+            sparse[id] = kept++;
+        }
+
+        Arrays.fill(dense, kept, size, null);
+        epoch += size - kept;
+        modCount++;
+        size = kept;
+    }
+
+    // approximate bytes held by the backing arrays
+    long footprint() {
+        return 4L * (dense.length + sparse.length);
+    }
+
+    /**
+     * Number of structural changes made to this set so far. Results derived from
+     * the set stay valid for as long as the epoch does not change.
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    @Override
+    public Entity get(final int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+
+        return dense[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(final Object o) {
+        return o instanceof Entity && indexOf(o) >= 0;
+    }
+
+    @Override
+    public int indexOf(final Object o) {
+        if (!(o instanceof Entity)) {
+            return -1;
+        }
+
+        int id = ((Entity) o).id;
+
+        if (id < 0 || id >= sparse.length) {
+            return -1;
+        }
+
+        int index = sparse[id];
+        return index < size && dense[index] == o ? index : -1;
+    }
+
+    @Override
+    public int lastIndexOf(final Object o) {
+        return indexOf(o);
+    }
+
+    @Override
+    public Object[] toArray() {
+        return Arrays.copyOf(dense, size, Object[].class);
+    }
+}
@@ -1,55 +1,124 @@
 package com.temprovich.inferno;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Set of component types an entity must carry. Families are interned: every
+ * factory returns the one canonical instance for its set of types, so families
+ * can be compared and used as keys by identity. A family nothing refers to any
+ * more is forgotten. Lookups take no lock but still build the signature of the
+ * types, so code running every frame should keep its family, or its
+ * {@link Query}, rather than define it again.
+ */
 public class Family implements Iterable<Class<?>>, Comparable<Family> {
+
+    // by signature of component type indices, weakly so unused families can go
+    private static final ConcurrentMap<BitSet, Canonical> CANONICAL = new ConcurrentHashMap<BitSet, Canonical>();
+    private static final ReferenceQueue<Family> COLLECTED = new ReferenceQueue<Family>();
     
     private final Set<Class<?>> types;
+    private final BitSet signature;
+    private final int hash;
+
+    private Family(final Set<Class<?>> types, final BitSet signature) {
+        this.types = types;
+        this.signature = signature;
+        this.hash = 31 + types.hashCode();
+    }
 
     @SafeVarargs
-    private Family(final Class<?>... types) {
+    public static Family define(final Class<?>... types) {
         if (types.length == 0) {
             throw new IllegalArgumentException("Family must have at least one type");
         }
-        this.types = new HashSet<Class<?>>();
+
+        BitSet signature = new BitSet();
         for (var type : types) {
-            this.types.add(type);
+            signature.set(ComponentType.index(type));
         }
-    }
-
-    private Family(final Family family) {
-        this.types = new HashSet<Class<?>>();
-        this.types.addAll(family.types);
-    }
 
-    @SafeVarargs
-    public static Family define(final Class<?>... types) {
-        return new Family(types);
+        return intern(signature);
     }
 
     public static Family define(final Family family) {
-        return new Family(family);
+        return family;
     }
 
     public static Family define(final Entity entity) {
-        Family family = new Family();
+        BitSet signature = new BitSet();
         for (var component : entity.getComponents()) {
-            family.types.add(component.getClass());
+            signature.set(ComponentType.index(component.getClass()));
         }
 
-        return family;
+        return intern(signature);
     }
 
     @SafeVarargs
     public static Family define(final Family original, final Class<? extends Component>... types) {
-        Family family = new Family(original);
+        BitSet signature = (BitSet) original.signature.clone();
         for (var type : types) {
-            family.types.add(type);
+            signature.set(ComponentType.index(type));
         }
         
-        return family;
+        return intern(signature);
+    }
+
+    public static int canonicalCount() {
+        prune();
+        return CANONICAL.size();
+    }
+
+    private static Family intern(final BitSet signature) {
+        Canonical known = CANONICAL.get(signature);
+        Family family = known != null ? known.get() : null;
+
+        if (family != null) {
+            return family;
+        }
+
+        prune();
+
+        Set<Class<?>> types = new HashSet<Class<?>>();
+        for (int i = signature.nextSetBit(0); i >= 0; i = signature.nextSetBit(i + 1)) {
+            types.add(ComponentType.type(i));
+        }
+
+        Family created = new Family(Collections.unmodifiableSet(types), signature);
+        Canonical entry = new Canonical(created);
+
+        // another thread may intern the same signature meanwhile, its family wins
+        for (;;) {
+            known = CANONICAL.putIfAbsent(signature, entry);
+
+            if (known == null) {
+                return created;
+            }
+
+            family = known.get();
+
+            if (family != null) {
+                return family;
+            }
+            if (CANONICAL.replace(signature, known, entry)) {
+                return created;
+            }
+        }
+    }
+
+    // forgets the families that were garbage collected
+    private static void prune() {
+        for (var ref = COLLECTED.poll(); ref != null; ref = COLLECTED.poll()) {
+            Canonical entry = (Canonical) ref;
+            CANONICAL.remove(entry.signature, entry);
+        }
     }
 
     public final boolean isMember(final Entity entity) {
@@ -121,10 +190,7 @@ public class Family implements Iterable<Class<?>>, Comparable<Family> {
     }
     @Override
     public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + ((types == null) ? 0 : types.hashCode());
-        return result;
+        return hash;
     }
 
     @Override
@@ -132,10 +198,7 @@ public class Family implements Iterable<Class<?>>, Comparable<Family> {
         if (this == obj) return true;
         if (!(obj instanceof Family)) return false;
         Family other = (Family) obj;
-        if (types == null) {
-            if (other.types != null) return false;
-        } else if (!types.equals(other.types)) return false;
-        return true;
+        return hash == other.hash && types.equals(other.types);
     }
 
     @Override
@@ -150,6 +213,16 @@ public class Family implements Iterable<Class<?>>, Comparable<Family> {
         return builder.toString();
     }
 
+    private static final class Canonical extends WeakReference<Family> {
+
+        private final BitSet signature;
+
+        Canonical(final Family family) {
+            super(family, COLLECTED);
+            this.signature = family.signature;
+        }
+    }
+
     private class FamilyIterator implements Iterator<Class<?>> {
             
             private int index = 0;
@@ -0,0 +1,929 @@
+package com.temprovich.inferno;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BinaryOperator;
+import java.util.function.IntConsumer;
+
+/**
+ * Scene graph stored as flat arrays instead of linked nodes. Nodes are addressed
+ * by stable integer handles; the topology is kept as parent / first child / next
+ * sibling links per handle.
+ * <p>
+ * In addition the graph maintains a depth-first pre-order of all nodes, rebuilt
+ * lazily after structural changes. Every parent precedes its children and every
+ * subtree occupies the contiguous range {@code [index, subtreeEnd(index))}, so a
+ * top-down pass is a single linear loop:
+ *
+ * <pre>
+ * for (int i = 1; i < graph.size(); i++) {
+ *     world[i] = combine(world[graph.parentIndex(i)], local[graph.nodeAt(i)]);
+ * }
+ * </pre>
+ *
+ * The graph can also run that pass itself: {@link #propagate} derives a world value
+ * for every node from its parent's world value and its own (local) value, and only
+ * re-evaluates the subtrees below nodes that changed since the previous pass.
+ * <p>
+ * Nodes may carry an axis-aligned bounding box. Each node also keeps the union of
+ * the boxes in its subtree, refit bottom-up along the ancestors of changed nodes,
+ * which turns the hierarchy into a bounding-volume hierarchy: box, frustum and ray
+ * queries skip every subtree whose bounds miss the query.
+ */
+public final class FlatSceneGraph<T> {
+
+    public static final int ROOT = 0;
+    public static final int NONE = -1;
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private static final int PARALLEL_THRESHOLD = 1024;
+    private static final int BOX = 6;
+
+    // topology by handle
+    private int[] parent;
+    private int[] firstChild;
+    private int[] lastChild;
+    private int[] nextSibling;
+    private int[] prevSibling;
+    private boolean[] alive;
+    private Object[] values;
+    private Object[] world;
+    private boolean[] dirty;
+
+    // min x, y, z followed by max x, y, z for every handle
+    private float[] bounds;
+    private float[] subtreeBounds;
+    private boolean[] bounded;
+    private boolean[] refit;
+    private int[] refitNodes;
+    private int refitCount;
+
+    // depth-first pre-order, rebuilt on demand
+    private int[] order;
+    private int[] indices;
+    private int[] parentIndices;
+    private int[] depths;
+    private int[] subtreeEnds;
+
+    private int[] dirtyNodes;
+    private int dirtyCount;
+
+    private int capacity;
+    private int size;
+    private int nextHandle;
+    private int freeHandle;
+    private boolean ordered;
+
+    public FlatSceneGraph() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    public FlatSceneGraph(int initialCapacity) {
+        this.capacity = Math.max(initialCapacity, 1);
+        this.parent = new int[capacity];
+        this.firstChild = new int[capacity];
+        this.lastChild = new int[capacity];
+        this.nextSibling = new int[capacity];
+        this.prevSibling = new int[capacity];
+        this.alive = new boolean[capacity];
+        this.values = new Object[capacity];
+        this.world = new Object[capacity];
+        this.dirty = new boolean[capacity];
+        this.bounds = new float[capacity * BOX];
+        this.subtreeBounds = new float[capacity * BOX];
+        this.bounded = new boolean[capacity];
+        this.refit = new boolean[capacity];
+        this.refitNodes = new int[capacity];
+        this.refitCount = 0;
+        this.order = new int[capacity];
+        this.indices = new int[capacity];
+        this.parentIndices = new int[capacity];
+        this.depths = new int[capacity];
+        this.subtreeEnds = new int[capacity];
+        this.dirtyNodes = new int[capacity];
+        this.dirtyCount = 0;
+        this.size = 0;
+        this.nextHandle = 0;
+        this.freeHandle = NONE;
+        this.ordered = false;
+
+        link(acquire(), NONE, null);
+    }
+
+    public int add(final T value) {
+        return add(ROOT, value);
+    }
+
+    public int add(final int parent, final T value) {
+        check(parent);
+
+        int node = acquire();
+        link(node, parent, value);
+        return node;
+    }
+
+    public void move(final int node, final int newParent) {
+        check(node);
+        check(newParent);
+
+        if (node == ROOT) {
+            throw new IllegalArgumentException("Cannot move the root");
+        }
+        for (int p = newParent; p != NONE; p = parent[p]) {
+            if (p == node) {
+                throw new IllegalArgumentException("Cannot move a node below itself");
+            }
+        }
+
+        markRefit(parent[node]);
+        unlink(node);
+        attach(node, newParent);
+        markRefit(newParent);
+        markDirty(node);
+        ordered = false;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T remove(final int node) {
+        check(node);
+
+        if (node == ROOT) {
+            throw new IllegalArgumentException("Cannot remove the root");
+        }
+
+        T value = (T) values[node];
+        markRefit(parent[node]);
+        unlink(node);
+
+        // release the whole subtree without recursion
+        int h = node;
+        while (true) {
+            if (firstChild[h] != NONE) {
+                h = firstChild[h];
+                continue;
+            }
+
+            int next = nextSibling[h];
+            int up = parent[h];
+            boolean done = h == node;
+
+            if (up != NONE && firstChild[up] == h) {
+                firstChild[up] = next;
+            }
+            release(h);
+
+            if (done) {
+                break;
+            }
+
+            h = next != NONE ? next : up;
+        }
+
+        ordered = false;
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(final int node) {
+        check(node);
+        return (T) values[node];
+    }
+
+    public void set(final int node, final T value) {
+        check(node);
+        values[node] = value;
+        markDirty(node);
+    }
+
+    @SuppressWarnings("unchecked")
+    public T getWorld(final int node) {
+        check(node);
+        return (T) world[node];
+    }
+
+    /**
+     * Flags a node whose value was mutated in place, so that the next propagation
+     * re-evaluates its subtree. {@link #set} does this implicitly.
+     */
+    public void markDirty(final int node) {
+        check(node);
+
+        if (dirty[node]) {
+            return;
+        }
+
+        dirty[node] = true;
+        dirtyNodes[dirtyCount++] = node;
+    }
+
+    public boolean isDirty(final int node) {
+        check(node);
+        return dirty[node];
+    }
+
+    /**
+     * Computes {@code world = combiner.apply(parentWorld, local)} for every node in a
+     * dirty subtree, top-down. The root's world value is its own value.
+     */
+    public void propagate(final BinaryOperator<T> combiner) {
+        int[] ranges = collectDirty();
+
+        for (int r = 0; r < ranges.length; r += 2) {
+            evaluate(ranges[r], ranges[r + 1], combiner);
+        }
+    }
+
+    /**
+     * Same as {@link #propagate(BinaryOperator)}, but evaluates independent subtrees
+     * in parallel on the given pool. The combiner must therefore be thread safe.
+     */
+    public void propagate(final BinaryOperator<T> combiner, final ForkJoinPool pool) {
+        int[] ranges = collectDirty();
+
+        if (ranges.length == 0) {
+            return;
+        }
+
+        pool.invoke(new RangesTask(ranges, 0, ranges.length / 2, combiner));
+    }
+
+    public void setBounds(final int node, final float minX, final float minY, final float minZ, final float maxX, final float maxY, final float maxZ) {
+        check(node);
+
+        int o = node * BOX;
+        bounds[o] = minX;
+        bounds[o + 1] = minY;
+        bounds[o + 2] = minZ;
+        bounds[o + 3] = maxX;
+        bounds[o + 4] = maxY;
+        bounds[o + 5] = maxZ;
+        bounded[node] = true;
+        markRefit(node);
+    }
+
+    public void clearBounds(final int node) {
+        check(node);
+
+        if (bounded[node]) {
+            bounded[node] = false;
+            markRefit(node);
+        }
+    }
+
+    public boolean hasBounds(final int node) {
+        check(node);
+        return bounded[node];
+    }
+
+    public float[] getBounds(final int node, final float[] out) {
+        check(node);
+        System.arraycopy(bounds, node * BOX, out, 0, BOX);
+        return out;
+    }
+
+    public float[] getSubtreeBounds(final int node, final float[] out) {
+        check(node);
+        refit();
+        System.arraycopy(subtreeBounds, node * BOX, out, 0, BOX);
+        return out;
+    }
+
+    /**
+     * Recomputes the subtree bounds of every node whose own bounds or children
+     * changed since the last refit, deepest first. Queries refit implicitly.
+     */
+    public void refit() {
+        order();
+
+        if (refitCount == 0) {
+            return;
+        }
+
+        int count = 0;
+        for (int i = 0; i < refitCount; i++) {
+            int node = refitNodes[i];
+
+            if (refit[node]) {
+                refit[node] = false;
+                refitNodes[count++] = indices[node];
+            }
+        }
+
+        refitCount = 0;
+        Arrays.sort(refitNodes, 0, count);
+
+        // children come after their parent in pre-order, so walk backwards
+        for (int i = count - 1; i >= 0; i--) {
+            int node = order[refitNodes[i]];
+            int o = node * BOX;
+
+            if (bounded[node]) {
+                System.arraycopy(bounds, o, subtreeBounds, o, BOX);
+            } else {
+                empty(o);
+            }
+
+            for (int c = firstChild[node]; c != NONE; c = nextSibling[c]) {
+                int co = c * BOX;
+
+                for (int k = 0; k < 3; k++) {
+                    subtreeBounds[o + k] = Math.min(subtreeBounds[o + k], subtreeBounds[co + k]);
+                    subtreeBounds[o + 3 + k] = Math.max(subtreeBounds[o + 3 + k], subtreeBounds[co + 3 + k]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reports every node whose own bounds overlap the given box.
+     */
+    public int queryBox(final float minX, final float minY, final float minZ, final float maxX, final float maxY, final float maxZ, final IntConsumer action) {
+        refit();
+
+        int count = 0;
+        int i = 0;
+
+        while (i < size) {
+            int node = order[i];
+
+            if (!overlaps(subtreeBounds, node * BOX, minX, minY, minZ, maxX, maxY, maxZ)) {
+                i = subtreeEnds[i];
+                continue;
+            }
+            if (bounded[node] && overlaps(bounds, node * BOX, minX, minY, minZ, maxX, maxY, maxZ)) {
+                action.accept(node);
+                count++;
+            }
+
+            i++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Reports every node whose own bounds are not entirely outside the frustum. The
+     * planes are packed as {@code a, b, c, d} quadruples facing inwards, so a point
+     * is inside when {@code a*x + b*y + c*z + d >= 0} holds for all of them. Subtrees
+     * entirely inside the frustum are reported without further plane tests.
+     */
+    public int queryFrustum(final float[] planes, final IntConsumer action) {
+        refit();
+
+        int count = 0;
+        int i = 0;
+
+        while (i < size) {
+            int node = order[i];
+            int classification = classify(subtreeBounds, node * BOX, planes);
+
+            if (classification < 0) {
+                i = subtreeEnds[i];
+                continue;
+            }
+            if (classification > 0) {
+                int end = subtreeEnds[i];
+
+                for (; i < end; i++) {
+                    if (bounded[order[i]]) {
+                        action.accept(order[i]);
+                        count++;
+                    }
+                }
+
+                continue;
+            }
+            if (bounded[node] && classify(bounds, node * BOX, planes) >= 0) {
+                action.accept(node);
+                count++;
+            }
+
+            i++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Reports every node whose own bounds are hit by the ray within
+     * {@code maxDistance}, measured in multiples of the direction vector.
+     */
+    public int queryRay(final float ox, final float oy, final float oz, final float dx, final float dy, final float dz, final float maxDistance, final IntConsumer action) {
+        refit();
+
+        float ix = 1f / dx;
+        float iy = 1f / dy;
+        float iz = 1f / dz;
+        int count = 0;
+        int i = 0;
+
+        while (i < size) {
+            int node = order[i];
+
+            if (intersect(subtreeBounds, node * BOX, ox, oy, oz, ix, iy, iz, maxDistance) < 0f) {
+                i = subtreeEnds[i];
+                continue;
+            }
+            if (bounded[node] && intersect(bounds, node * BOX, ox, oy, oz, ix, iy, iz, maxDistance) >= 0f) {
+                action.accept(node);
+                count++;
+            }
+
+            i++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the node whose own bounds the ray enters first, or {@link #NONE}.
+     */
+    public int pick(final float ox, final float oy, final float oz, final float dx, final float dy, final float dz, final float maxDistance) {
+        refit();
+
+        float ix = 1f / dx;
+        float iy = 1f / dy;
+        float iz = 1f / dz;
+        float nearest = maxDistance;
+        int result = NONE;
+        int i = 0;
+
+        while (i < size) {
+            int node = order[i];
+
+            if (intersect(subtreeBounds, node * BOX, ox, oy, oz, ix, iy, iz, nearest) < 0f) {
+                i = subtreeEnds[i];
+                continue;
+            }
+            if (bounded[node]) {
+                float t = intersect(bounds, node * BOX, ox, oy, oz, ix, iy, iz, nearest);
+
+                if (t >= 0f && (result == NONE || t < nearest)) {
+                    nearest = t;
+                    result = node;
+                }
+            }
+
+            i++;
+        }
+
+        return result;
+    }
+
+    private static boolean overlaps(final float[] b, final int o, final float minX, final float minY, final float minZ, final float maxX, final float maxY, final float maxZ) {
+        return b[o] <= maxX && b[o + 3] >= minX
+            && b[o + 1] <= maxY && b[o + 4] >= minY
+            && b[o + 2] <= maxZ && b[o + 5] >= minZ;
+    }
+
+    // -1 outside, 0 intersecting, 1 inside
+    private static int classify(final float[] b, final int o, final float[] planes) {
+        if (b[o] > b[o + 3]) {
+            return -1;
+        }
+
+        int result = 1;
+
+        for (int p = 0; p + 3 < planes.length; p += 4) {
+            float a = planes[p];
+            float bb = planes[p + 1];
+            float c = planes[p + 2];
+            float d = planes[p + 3];
+
+            // corner furthest along the plane normal, then the nearest one
+            float far = a * (a >= 0f ? b[o + 3] : b[o]) + bb * (bb >= 0f ? b[o + 4] : b[o + 1]) + c * (c >= 0f ? b[o + 5] : b[o + 2]) + d;
+            if (far < 0f) {
+                return -1;
+            }
+
+            float near = a * (a >= 0f ? b[o] : b[o + 3]) + bb * (bb >= 0f ? b[o + 1] : b[o + 4]) + c * (c >= 0f ? b[o + 2] : b[o + 5]) + d;
+            if (near < 0f) {
+                result = 0;
+            }
+        }
+
+        return result;
+    }
+
+    // entry distance of the ray into the box, or -1 on a miss
+    private static float intersect(final float[] b, final int o, final float ox, final float oy, final float oz, final float ix, final float iy, final float iz, final float maxDistance) {
+        if (b[o] > b[o + 3]) {
+            return -1f;
+        }
+
+        float near = 0f;
+        float far = maxDistance;
+
+        // a ray parallel to a slab, with an infinite inverse, only has to start
+        // between its planes; the products would be 0 * inf = NaN on a plane
+        for (int axis = 0; axis < 3; axis++) {
+            float origin = axis == 0 ? ox : axis == 1 ? oy : oz;
+            float inverse = axis == 0 ? ix : axis == 1 ? iy : iz;
+            float min = b[o + axis];
+            float max = b[o + axis + 3];
+
+            if (Float.isInfinite(inverse)) {
+                if (origin < min || origin > max) {
+                    return -1f;
+                }
+
+                continue;
+            }
+
+            float t1 = (min - origin) * inverse;
+            float t2 = (max - origin) * inverse;
+            near = Math.max(near, Math.min(t1, t2));
+            far = Math.min(far, Math.max(t1, t2));
+        }
+
+        return near <= far ? near : -1f;
+    }
+
+    private void markRefit(final int node) {
+        for (int p = node; p != NONE && !refit[p]; p = parent[p]) {
+            if (refitCount == refitNodes.length) {
+                refitNodes = Arrays.copyOf(refitNodes, (refitNodes.length * 3) / 2 + 1);
+            }
+
+            refit[p] = true;
+            refitNodes[refitCount++] = p;
+        }
+    }
+
+    private void empty(final int o) {
+        subtreeBounds[o] = Float.POSITIVE_INFINITY;
+        subtreeBounds[o + 1] = Float.POSITIVE_INFINITY;
+        subtreeBounds[o + 2] = Float.POSITIVE_INFINITY;
+        subtreeBounds[o + 3] = Float.NEGATIVE_INFINITY;
+        subtreeBounds[o + 4] = Float.NEGATIVE_INFINITY;
+        subtreeBounds[o + 5] = Float.NEGATIVE_INFINITY;
+    }
+
+    // dirty nodes as pre-order [from, to) pairs, with nested subtrees dropped
+    private int[] collectDirty() {
+        order();
+
+        int count = 0;
+        for (int i = 0; i < dirtyCount; i++) {
+            int node = dirtyNodes[i];
+            dirty[node] = false;
+
+            if (alive[node]) {
+                dirtyNodes[count++] = indices[node];
+            }
+        }
+
+        dirtyCount = 0;
+        Arrays.sort(dirtyNodes, 0, count);
+
+        int[] ranges = new int[count * 2];
+        int length = 0;
+        int end = 0;
+
+        for (int i = 0; i < count; i++) {
+            int index = dirtyNodes[i];
+
+            if (index < end) {
+                continue;
+            }
+
+            end = subtreeEnds[index];
+            ranges[length++] = index;
+            ranges[length++] = end;
+        }
+
+        return Arrays.copyOf(ranges, length);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void evaluate(final int from, final int to, final BinaryOperator<T> combiner) {
+        for (int i = from; i < to; i++) {
+            int node = order[i];
+            int p = parentIndices[i];
+
+            world[node] = p == NONE ? values[node] : combiner.apply((T) world[order[p]], (T) values[node]);
+        }
+    }
+
+    public int getParent(final int node) {
+        check(node);
+        return parent[node];
+    }
+
+    public int getFirstChild(final int node) {
+        check(node);
+        return firstChild[node];
+    }
+
+    public int getNextSibling(final int node) {
+        check(node);
+        return nextSibling[node];
+    }
+
+    public boolean hasChild(final int node, final int child) {
+        return contains(child) && parent[child] == node;
+    }
+
+    public boolean hasChildren(final int node) {
+        check(node);
+        return firstChild[node] != NONE;
+    }
+
+    public int getChildCount(final int node) {
+        check(node);
+
+        int count = 0;
+        for (int c = firstChild[node]; c != NONE; c = nextSibling[c]) {
+            count++;
+        }
+
+        return count;
+    }
+
+    public int getDepth(final int node) {
+        check(node);
+        order();
+        return depths[indices[node]];
+    }
+
+    public boolean contains(final int node) {
+        return node >= 0 && node < nextHandle && alive[node];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // pre-order access
+
+    public int indexOf(final int node) {
+        check(node);
+        order();
+        return indices[node];
+    }
+
+    public int nodeAt(final int index) {
+        order();
+        return order[index];
+    }
+
+    public int parentIndex(final int index) {
+        order();
+        return parentIndices[index];
+    }
+
+    public int depthAt(final int index) {
+        order();
+        return depths[index];
+    }
+
+    public int subtreeEnd(final int index) {
+        order();
+        return subtreeEnds[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public T valueAt(final int index) {
+        order();
+        return (T) values[order[index]];
+    }
+
+    /**
+     * Rebuilds the pre-order if the structure changed since the last call. This is
+     * done implicitly by every pre-order accessor, but calling it up front keeps
+     * the check out of hot loops.
+     */
+    public void order() {
+        if (ordered) {
+            return;
+        }
+
+        int i = 0;
+        int h = ROOT;
+
+        outer:
+        while (true) {
+            int p = parent[h];
+            order[i] = h;
+            indices[h] = i;
+            parentIndices[i] = p == NONE ? NONE : indices[p];
+            depths[i] = p == NONE ? 0 : depths[indices[p]] + 1;
+            i++;
+
+            if (firstChild[h] != NONE) {
+                h = firstChild[h];
+                continue;
+            }
+
+            while (true) {
+                subtreeEnds[indices[h]] = i;
+
+                if (h == ROOT) {
+                    break outer;
+                }
+                if (nextSibling[h] != NONE) {
+                    h = nextSibling[h];
+                    break;
+                }
+
+                h = parent[h];
+            }
+        }
+
+        ordered = true;
+    }
+
+    private void link(final int node, final int parent, final T value) {
+        values[node] = value;
+        firstChild[node] = NONE;
+        lastChild[node] = NONE;
+        bounded[node] = false;
+        empty(node * BOX);
+        attach(node, parent);
+        markDirty(node);
+        ordered = false;
+    }
+
+    private void attach(final int node, final int parent) {
+        this.parent[node] = parent;
+        nextSibling[node] = NONE;
+        prevSibling[node] = NONE;
+
+        if (parent == NONE) {
+            return;
+        }
+
+        int last = lastChild[parent];
+
+        if (last == NONE) {
+            firstChild[parent] = node;
+        } else {
+            nextSibling[last] = node;
+            prevSibling[node] = last;
+        }
+
+        lastChild[parent] = node;
+    }
+
+    private void unlink(final int node) {
+        int p = parent[node];
+        int prev = prevSibling[node];
+        int next = nextSibling[node];
+
+        if (prev == NONE) {
+            firstChild[p] = next;
+        } else {
+            nextSibling[prev] = next;
+        }
+
+        if (next == NONE) {
+            lastChild[p] = prev;
+        } else {
+            prevSibling[next] = prev;
+        }
+
+        parent[node] = NONE;
+        nextSibling[node] = NONE;
+        prevSibling[node] = NONE;
+    }
+
+    private int acquire() {
+        int node;
+
+        if (freeHandle != NONE) {
+            node = freeHandle;
+            freeHandle = nextSibling[node];
+        } else {
+            if (nextHandle == capacity) {
+                grow((capacity * 3) / 2 + 1);
+            }
+
+            node = nextHandle++;
+        }
+
+        alive[node] = true;
+        size++;
+        return node;
+    }
+
+    private void release(final int node) {
+        alive[node] = false;
+        values[node] = null;
+        world[node] = null;
+        bounded[node] = false;
+        refit[node] = false;
+        parent[node] = NONE;
+        firstChild[node] = NONE;
+        lastChild[node] = NONE;
+        prevSibling[node] = NONE;
+        nextSibling[node] = freeHandle;
+        freeHandle = node;
+        size--;
+    }
+
+    private void grow(final int newCapacity) {
+        parent = Arrays.copyOf(parent, newCapacity);
+        firstChild = Arrays.copyOf(firstChild, newCapacity);
+        lastChild = Arrays.copyOf(lastChild, newCapacity);
+        nextSibling = Arrays.copyOf(nextSibling, newCapacity);
+        prevSibling = Arrays.copyOf(prevSibling, newCapacity);
+        alive = Arrays.copyOf(alive, newCapacity);
+        values = Arrays.copyOf(values, newCapacity);
+        world = Arrays.copyOf(world, newCapacity);
+        dirty = Arrays.copyOf(dirty, newCapacity);
+        dirtyNodes = Arrays.copyOf(dirtyNodes, newCapacity);
+        bounds = Arrays.copyOf(bounds, newCapacity * BOX);
+        subtreeBounds = Arrays.copyOf(subtreeBounds, newCapacity * BOX);
+        bounded = Arrays.copyOf(bounded, newCapacity);
+        refit = Arrays.copyOf(refit, newCapacity);
+        order = Arrays.copyOf(order, newCapacity);
+        indices = Arrays.copyOf(indices, newCapacity);
+        parentIndices = Arrays.copyOf(parentIndices, newCapacity);
+        depths = Arrays.copyOf(depths, newCapacity);
+        subtreeEnds = Arrays.copyOf(subtreeEnds, newCapacity);
+        capacity = newCapacity;
+    }
+
+    private void check(final int node) {
+        if (!contains(node)) {
+            throw new IllegalArgumentException("Node " + node + " is not part of this scene graph");
+        }
+    }
+
+    private final class RangesTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] ranges;
+        private final int from;
+        private final int to;
+        private final BinaryOperator<T> combiner;
+
+        RangesTask(int[] ranges, int from, int to, BinaryOperator<T> combiner) {
+            this.ranges = ranges;
+            this.from = from;
+            this.to = to;
+            this.combiner = combiner;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                new SubtreeTask(ranges[2 * from], ranges[2 * from + 1], combiner).compute();
+                return;
+            }
+
+            int nodes = 0;
+            for (int r = from; r < to && nodes < PARALLEL_THRESHOLD; r++) {
+                nodes += ranges[2 * r + 1] - ranges[2 * r];
+            }
+
+            if (nodes < PARALLEL_THRESHOLD) {
+                for (int r = from; r < to; r++) {
+                    evaluate(ranges[2 * r], ranges[2 * r + 1], combiner);
+                }
+
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            invokeAll(new RangesTask(ranges, from, mid, combiner), new RangesTask(ranges, mid, to, combiner));
+        }
+    }
+
+    private final class SubtreeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final BinaryOperator<T> combiner;
+
+        SubtreeTask(int from, int to, BinaryOperator<T> combiner) {
+            this.from = from;
+            this.to = to;
+            this.combiner = combiner;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                evaluate(from, to, combiner);
+                return;
+            }
+
+            // the subtree root first, then every child subtree as its own task
+            evaluate(from, from + 1, combiner);
+
+            List<SubtreeTask> children = new ArrayList<SubtreeTask>();
+            for (int i = from + 1; i < to; i = subtreeEnds[i]) {
+                children.add(new SubtreeTask(i, subtreeEnds[i], combiner));
+            }
+
+            invokeAll(children);
+        }
+    }
+}
@@ -0,0 +1,519 @@
+package com.temprovich.inferno;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of a registry for crash recovery. At the end of every update
+ * the changes of that frame are appended as one delta to a memory-mapped segment,
+ * which costs a copy but no system call; a background thread forces the written
+ * ranges to disk. Every checkpoint interval the whole world is written as a
+ * checkpoint and a new segment is started, and once the checkpoint is durable the
+ * older files are deleted. The next segment is created ahead of time in the
+ * background and only renamed when it is started. {@link #recover} rebuilds a
+ * registry from the last checkpoint and the segments after it.
+ * <p>
+ * Journaling turns on change tracking and trims the change log at checkpoints.
+ * Only changes reported to the registry are seen, so value changes must go
+ * through {@link Registry#changed} or {@link Registry#patch}, and every component
+ * type needs a codec. Files are named by {@link Registry#getSequence}, which keeps
+ * growing when a rollback moves the tick back.
+ *
+ * <pre>
+ * checkpoint-&lt;sequence&gt;: one delta creating every entity
+ * journal-&lt;sequence&gt;: per frame: int length, int crc, length bytes of delta
+ * </pre>
+ */
+public final class Journal implements AutoCloseable {
+
+    private static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+    private static final long DEFAULT_CHECKPOINT_INTERVAL = 3600L;
+    private static final int HEADER = 2 * Integer.BYTES;
+
+    private static final String CHECKPOINT = "checkpoint-";
+    private static final String SEGMENT = "journal-";
+    private static final String PARTIAL = ".partial";
+    private static final String SPARE = "journal.spare";
+
+    private final Registry registry;
+    private final Path directory;
+    private final ExecutorService writer;
+    private final AtomicBoolean flushing;
+    private final AtomicBoolean preparing;
+    private final CRC32 crc;
+    private final Snapshots.Output frame;
+
+    private int segmentSize;
+    private long checkpointInterval;
+    private volatile Segment segment;
+    private volatile Segment spare;
+    private long committed;
+    private long checkpointed;
+    private volatile long durable;
+    private volatile IOException failure;
+
+    public Journal(Registry registry, Path directory) throws IOException {
+        if (registry.isUpdating()) {
+            throw new IllegalStateException("Cannot start a journal while updating");
+        }
+
+        Files.createDirectories(directory);
+
+        this.registry = registry;
+        this.directory = directory;
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "inferno-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flushing = new AtomicBoolean(false);
+        this.preparing = new AtomicBoolean(false);
+        this.crc = new CRC32();
+        this.frame = new Snapshots.Output(null, ByteBuffer.allocateDirect(DEFAULT_SEGMENT_SIZE >> 6));
+        this.segmentSize = DEFAULT_SEGMENT_SIZE;
+        this.checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+        this.segment = null;
+        this.spare = null;
+        this.committed = registry.getSequence();
+        this.checkpointed = -1L;
+        this.durable = -1L;
+        this.failure = null;
+
+        registry.trackChanges(true);
+        checkpoint();
+        registry.attach(this);
+    }
+
+    /**
+     * Appends the changes since the last commit. The registry calls this at the end
+     * of every update; call it directly to journal changes made between updates,
+     * which moves the registry on to the next sequence number.
+     */
+    public void commit() {
+        rethrow();
+
+        long sequence = registry.getSequence();
+
+        if (sequence == committed) {
+            ChangeLog log = registry.changeLog();
+
+            if (log.first(sequence) == log.size()) {
+                return;
+            }
+
+            // changes made between updates are closed off under a sequence number of their own
+            sequence++;
+            registry.setSequence(sequence);
+        }
+
+        if (sequence - checkpointed >= checkpointInterval) {
+            checkpoint();
+            return;
+        }
+
+        frame.buffer().clear();
+        Deltas.write(registry, registry.changeLog(), committed, sequence, frame);
+        append(frame.buffer().flip(), sequence);
+        committed = sequence;
+
+        if (!flushing.getAndSet(true)) {
+            writer.execute(this::flush);
+        }
+    }
+
+    /**
+     * Writes the whole world as a checkpoint and starts a new segment. The world is
+     * encoded on the calling thread; writing and forcing the file happen in the
+     * background.
+     */
+    public void checkpoint() {
+        rethrow();
+
+        final long sequence = registry.getSequence();
+        Snapshots.Output out = new Snapshots.Output(null, ByteBuffer.allocate(DEFAULT_SEGMENT_SIZE >> 6));
+        Deltas.writeFull(registry, sequence, out);
+        final ByteBuffer bytes = out.buffer().flip();
+
+        roll(sequence, 0);
+        committed = sequence;
+        checkpointed = sequence;
+        registry.trimChanges(sequence);
+
+        writer.execute(() -> {
+            try {
+                Path partial = directory.resolve(CHECKPOINT + sequence + PARTIAL);
+
+                try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    while (bytes.hasRemaining()) {
+                        channel.write(bytes);
+                    }
+
+                    channel.force(false);
+                }
+
+                Files.move(partial, directory.resolve(CHECKPOINT + sequence), StandardCopyOption.ATOMIC_MOVE);
+                durable = sequence;
+                prune(sequence);
+            } catch (IOException e) {
+                failure = e;
+            }
+        });
+    }
+
+    /**
+     * Blocks until everything committed so far is on disk.
+     */
+    public void sync() throws IOException {
+        try {
+            writer.submit(this::flush).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while syncing the journal", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        registry.detach(this);
+
+        if (failure == null) {
+            commit();
+        }
+
+        sync();
+        writer.execute(() -> {
+            retire(segment);
+            discard();
+        });
+        writer.shutdown();
+
+        try {
+            writer.awaitTermination(1L, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public void setSegmentSize(int segmentSize) {
+        if (segmentSize <= HEADER) {
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+        }
+
+        this.segmentSize = segmentSize;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Number of updates between checkpoints. A checkpoint encodes the whole world on
+     * the updating thread, so the update that takes it stalls for a time that grows
+     * with the number of entities; a longer interval makes these stalls rarer but
+     * lengthens recovery.
+     */
+    public void setCheckpointInterval(long checkpointInterval) {
+        if (checkpointInterval <= 0L) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive: " + checkpointInterval);
+        }
+
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    public long getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * The registry sequence number the journal has recorded up to.
+     */
+    public long getCommittedSequence() {
+        return committed;
+    }
+
+    /**
+     * The sequence number a recovery is guaranteed to reach.
+     */
+    public long getDurableSequence() {
+        return durable;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Adds the world recorded in a journal directory to an empty registry, from the
+     * last complete checkpoint followed by every intact frame after it, and moves
+     * the registry to the recovered tick, which is returned, and sequence number.
+     */
+    public static long recover(final Registry target, final Path directory) throws IOException {
+        long checkpoint = -1L;
+
+        for (var sequence : sequences(directory, CHECKPOINT)) {
+            checkpoint = Math.max(checkpoint, sequence);
+        }
+
+        if (checkpoint < 0L) {
+            throw new IOException("No checkpoint in " + directory);
+        }
+
+        Replica replica = new Replica(target);
+        long sequence = replica.apply(directory.resolve(CHECKPOINT + checkpoint));
+        List<Long> segments = sequences(directory, SEGMENT);
+        segments.sort(null);
+        CRC32 crc = new CRC32();
+
+        replay:
+        for (var start : segments) {
+            if (start < checkpoint) {
+                continue;
+            }
+
+            try (FileChannel channel = FileChannel.open(directory.resolve(SEGMENT + start), StandardOpenOption.READ)) {
+                ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+
+                while (in.remaining() >= HEADER) {
+                    int length = in.getInt();
+                    int checksum = in.getInt();
+
+                    if (length <= 0 || length > in.remaining()) {
+                        break;
+                    }
+
+                    ByteBuffer delta = in.slice().limit(length).order(ByteOrder.LITTLE_ENDIAN);
+                    in.position(in.position() + length);
+                    crc.reset();
+                    crc.update(delta.duplicate());
+
+                    // a torn frame ends the journal
+                    if ((int) crc.getValue() != checksum) {
+                        break replay;
+                    }
+                    // frames must follow on from each other
+                    if (delta.getLong(2 * Integer.BYTES) != sequence) {
+                        break;
+                    }
+
+                    sequence = replica.apply(delta);
+                }
+            }
+        }
+
+        target.setSequence(sequence);
+        target.setTick(replica.getTick());
+        return replica.getTick();
+    }
+
+    private void append(final ByteBuffer bytes, final long sequence) {
+        int length = bytes.remaining();
+
+        if (segment.buffer.remaining() < HEADER + length) {
+            roll(committed, HEADER + length);
+        }
+
+        MappedByteBuffer buffer = segment.buffer;
+        int at = buffer.position();
+        crc.reset();
+        crc.update(bytes.duplicate());
+        buffer.position(at + HEADER);
+        buffer.put(bytes);
+        buffer.putInt(at + Integer.BYTES, (int) crc.getValue());
+        // the length goes last so that a reader never sees a partial frame as whole
+        buffer.putInt(at, length);
+
+        segment.committed = buffer.position();
+        segment.sequence = sequence;
+    }
+
+    // starts the segment of frames following the given sequence
+    private void roll(final long sequence, final int needed) {
+        Segment previous = segment;
+
+        if (previous != null && previous.committed == 0 && previous.start == sequence) {
+            // an empty segment too small for the frame is replaced under the same name
+            retire(previous);
+            previous = null;
+        }
+
+        int size = Math.max(segmentSize, needed);
+        Segment next = spare;
+        spare = null;
+
+        if (next != null && next.buffer.capacity() == size) {
+            // the spare was created and mapped in the background, it only needs its name
+            try {
+                Files.move(directory.resolve(SPARE), directory.resolve(SEGMENT + sequence), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                spare = next;
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            if (next != null) {
+                final Segment stale = next;
+                writer.execute(() -> retire(stale));
+            }
+
+            try {
+                next = new Segment(directory.resolve(SEGMENT + sequence), size);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        next.start = sequence;
+        segment = next;
+
+        if (previous != null) {
+            Segment retired = previous;
+            writer.execute(() -> retire(retired));
+        }
+
+        // one spare at a time, so that none is created while the last one is being taken
+        if (!preparing.getAndSet(true)) {
+            writer.execute(this::prepare);
+        }
+    }
+
+    // runs on the writer thread, so that the next roll does not create and map a file
+    private void prepare() {
+        try {
+            if (spare == null && failure == null) {
+                spare = new Segment(directory.resolve(SPARE), segmentSize);
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            preparing.set(false);
+        }
+    }
+
+    // runs on the writer thread
+    private void discard() {
+        Segment s = spare;
+        spare = null;
+
+        if (s == null) {
+            return;
+        }
+
+        try {
+            s.channel.close();
+            Files.deleteIfExists(directory.resolve(SPARE));
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    // runs on the writer thread
+    private void flush() {
+        flushing.set(false);
+        force(segment);
+    }
+
+    private void force(final Segment s) {
+        int to = s.committed;
+        long sequence = s.sequence;
+
+        if (to > s.forced) {
+            s.buffer.force(s.forced, to - s.forced);
+            s.forced = to;
+        }
+        // frames only count once the checkpoint below them made it to disk
+        if (sequence > durable && failure == null) {
+            durable = sequence;
+        }
+    }
+
+    private void retire(final Segment s) {
+        force(s);
+
+        try {
+            s.channel.close();
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    private void prune(final long checkpoint) throws IOException {
+        for (var sequence : sequences(directory, CHECKPOINT)) {
+            if (sequence < checkpoint) {
+                Files.deleteIfExists(directory.resolve(CHECKPOINT + sequence));
+            }
+        }
+        for (var sequence : sequences(directory, SEGMENT)) {
+            if (sequence < checkpoint) {
+                Files.deleteIfExists(directory.resolve(SEGMENT + sequence));
+            }
+        }
+    }
+
+    private void rethrow() {
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+    }
+
+    private static List<Long> sequences(final Path directory, final String prefix) throws IOException {
+        List<Long> sequences = new ArrayList<Long>();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*")) {
+            for (var file : files) {
+                String name = file.getFileName().toString();
+
+                if (!name.endsWith(PARTIAL)) {
+                    sequences.add(Long.parseLong(name.substring(prefix.length())));
+                }
+            }
+        }
+
+        return sequences;
+    }
+
+    private static final class Segment {
+
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private long start;
+        private volatile int committed;
+        private volatile long sequence;
+        private int forced;
+
+        Segment(Path path, int size) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+            this.start = -1L;
+            this.committed = 0;
+            this.sequence = -1L;
+            this.forced = 0;
+        }
+    }
+}
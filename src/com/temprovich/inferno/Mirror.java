@@ -0,0 +1,238 @@
+package com.temprovich.inferno;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read-only copies of selected component types for threads other than the one
+ * updating the registry. After every update the registry copies the components of
+ * the entities holding all of the types into a frame and publishes it; readers
+ * {@link #acquire} the latest frame and close it when done.
+ * <p>
+ * A frame is never written while a reader holds it, and the registry never waits
+ * for readers: if every older frame is still held it fills a new one. Components
+ * are copied like prefab templates, so types with final or mutable reference
+ * fields need {@link Component#copyFrom} to be mirrored.
+ */
+public final class Mirror {
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    // Slot.readers of a slot the registry is filling
+    private static final int WRITING = -1;
+
+    private final Class<?>[] types;
+    private final EntitySet source;
+    private final List<Slot> slots;
+
+    private volatile Slot latest;
+
+    Mirror(final Class<?>[] types, final EntitySet source) {
+        this.types = types;
+        this.source = source;
+        this.slots = new ArrayList<Slot>();
+        this.latest = null;
+    }
+
+    /**
+     * The latest published frame, held until closed. Never blocks.
+     */
+    public Frame acquire() {
+        for (;;) {
+            Slot slot = latest;
+            int readers = slot.readers.get();
+
+            // a slot being filled is never the latest, so reading latest again finds one to hold
+            if (readers != WRITING && slot.readers.compareAndSet(readers, readers + 1)) {
+                return new Frame(slot);
+            }
+
+            Thread.onSpinWait();
+        }
+    }
+
+    public Class<?>[] getTypes() {
+        return types.clone();
+    }
+
+    // number of frames allocated so far, more than three only while readers hold frames long
+    public int getFrameCount() {
+        return slots.size();
+    }
+
+    // called by the registry on its own thread once an update completed
+    void publish(final long tick) {
+        Slot current = latest;
+        Slot slot = null;
+
+        for (var s : slots) {
+            if (s != current && s.readers.compareAndSet(0, WRITING)) {
+                slot = s;
+                break;
+            }
+        }
+
+        if (slot == null) {
+            slot = new Slot(types.length);
+            slot.readers.set(WRITING);
+            slots.add(slot);
+        }
+
+        slot.fill(types, source, tick);
+        slot.readers.set(0);
+        latest = slot;
+    }
+
+    /**
+     * Components of one published tick, indexed by entity, held by one reader until
+     * closed. Read-only: the components are copies the registry reuses once every
+     * reader closed its frame.
+     */
+    public static final class Frame implements AutoCloseable {
+
+        private final Slot slot;
+        private boolean closed;
+
+        private Frame(final Slot slot) {
+            this.slot = slot;
+            this.closed = false;
+        }
+
+        public long getTick() {
+            return open().tick;
+        }
+
+        public int size() {
+            return open().size;
+        }
+
+        public int getId(final int index) {
+            Slot slot = open();
+
+            if (index >= slot.size) {
+                throw new IndexOutOfBoundsException(index);
+            }
+
+            return slot.ids[index];
+        }
+
+        // index of the entity with the given id, -1 when it is not in the frame
+        public int indexOf(final int id) {
+            Slot slot = open();
+            return id >= 0 && id < slot.indices.length ? slot.indices[id] - 1 : -1;
+        }
+
+        public <T extends Component> T get(final int index, final Class<T> type) {
+            Slot slot = open();
+
+            if (index >= slot.size) {
+                throw new IndexOutOfBoundsException(index);
+            }
+
+            for (int t = 0; t < slot.columns.length; t++) {
+                if (type.isInstance(slot.columns[t][index])) {
+                    return type.cast(slot.columns[t][index]);
+                }
+            }
+
+            throw new IllegalArgumentException("Component type " + type.getSimpleName() + " is not mirrored");
+        }
+
+        /**
+         * Releases the frame to the registry. Components read from it must not be
+         * used afterwards. Closing again has no effect.
+         */
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                slot.readers.decrementAndGet();
+            }
+        }
+
+        private Slot open() {
+            if (closed) {
+                throw new IllegalStateException("Frame is closed");
+            }
+
+            return slot;
+        }
+    }
+
+    // the copies of one tick, shared by the frames of every reader holding it
+    private static final class Slot {
+
+        private final AtomicInteger readers;
+        private final Component[][] columns;
+        private int[] ids;
+        private int[] indices;
+        private int size;
+        private long tick;
+
+        private Slot(final int types) {
+            this.readers = new AtomicInteger();
+            this.columns = new Component[types][DEFAULT_INITIAL_CAPACITY];
+            this.ids = new int[DEFAULT_INITIAL_CAPACITY];
+            this.indices = new int[DEFAULT_INITIAL_CAPACITY];
+            this.size = 0;
+            this.tick = 0L;
+        }
+
+        private void fill(final Class<?>[] types, final EntitySet source, final long tick) {
+            // forget the ids of the previous contents, indices hold index + 1
+            for (int i = 0; i < size; i++) {
+                indices[ids[i]] = 0;
+            }
+
+            int n = source.size();
+            Class<?>[] copied = new Class<?>[columns.length];
+            ComponentCopier[] copiers = new ComponentCopier[columns.length];
+
+            if (n > ids.length) {
+                int length = Math.max(n, (ids.length * 3) / 2 + 1);
+                ids = Arrays.copyOf(ids, length);
+
+                for (int t = 0; t < columns.length; t++) {
+                    columns[t] = Arrays.copyOf(columns[t], length);
+                }
+            }
+
+            for (int i = 0; i < n; i++) {
+                Entity entity = source.get(i);
+                int id = entity.id;
+
+                if (id >= indices.length) {
+                    indices = Arrays.copyOf(indices, Math.max(id + 1, (indices.length * 3) / 2 + 1));
+                }
+
+                ids[i] = id;
+                indices[id] = i + 1;
+
+                for (int t = 0; t < columns.length; t++) {
+                    Component component = entity.get(types[t].asSubclass(Component.class));
+                    Class<?> type = component.getClass();
+
+                    if (type != copied[t]) {
+                        copied[t] = type;
+                        copiers[t] = ComponentCopier.of(type);
+                    }
+
+                    // copies are reused from frame to frame while the type stays the same
+                    Component copy = columns[t][i];
+                    columns[t][i] = copy != null && copy.getClass() == type
+                                  ? copiers[t].copyInto(copy, component)
+                                  : copiers[t].copyOf(component);
+                }
+            }
+
+            for (int t = 0; t < columns.length; t++) {
+                Arrays.fill(columns[t], n, size > n ? size : n, null);
+            }
+
+            this.size = n;
+            this.tick = tick;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.temprovich.inferno;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+/**
+ * Dense, aligned storage for every entity matching a family. For each owned
+ * component type the group keeps a pool in which the component of the i-th member
+ * sits at index i, so a system can walk all pools with one index and no lookups:
+ *
+ * <pre>
+ * Transform[] transforms = group.pool(Transform.class);
+ * Velocity[] velocities = group.pool(Velocity.class);
+ * for (int i = 0; i < group.size(); i++) { ... }
+ * </pre>
+ *
+ * Pools are reallocated as the group grows, so fetch them again after entities
+ * have been added. A component type can only be owned by one group per registry.
+ */
+public final class OwningGroup {
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    private final Family family;
+    private final Class<?>[] types;
+    private final Component[][] pools;
+    private Entity[] entities;
+    private int[] sparse;
+    private int size;
+
+    OwningGroup(final Family family) {
+        this.family = family;
+        this.types = family.getTypes();
+        this.pools = new Component[types.length][];
+        this.entities = new Entity[DEFAULT_INITIAL_CAPACITY];
+        this.sparse = new int[DEFAULT_INITIAL_CAPACITY];
+        this.size = 0;
+
+        for (int t = 0; t < types.length; t++) {
+            pools[t] = (Component[]) Array.newInstance(types[t], DEFAULT_INITIAL_CAPACITY);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    void insert(final Entity entity) {
+        if (size == entities.length) {
+            grow((entities.length * 3) / 2 + 1);
+        }
+        if (entity.id >= sparse.length) {
+            sparse = Arrays.copyOf(sparse, Math.max(entity.id + 1, (sparse.length * 3) / 2 + 1));
+        }
+
+        for (int t = 0; t < types.length; t++) {
+            pools[t][size] = entity.get((Class<? extends Component>) types[t]);
+        }
+
+        sparse[entity.id] = size;
+        entities[size++] = entity;
+    }
+
+    boolean erase(final Entity entity) {
+        int index = indexOf(entity);
+
+        if (index < 0) {
+            return false;
+        }
+
+        int last = --size;
+        Entity moved = entities[last];
+        entities[index] = moved;
+        entities[last] = null;
+        sparse[moved.id] = index;
+
+        for (var pool : pools) {
+            pool[index] = pool[last];
+            pool[last] = null;
+        }
+
+        return true;
+    }
+
+    void clear() {
+        Arrays.fill(entities, 0, size, null);
+
+        for (var pool : pools) {
+            Arrays.fill(pool, 0, size, null);
+        }
+
+        size = 0;
+    }
+
+    private void grow(final int capacity) {
+        entities = Arrays.copyOf(entities, capacity);
+
+        for (int t = 0; t < pools.length; t++) {
+            pools[t] = Arrays.copyOf(pools[t], capacity);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Component> T[] pool(final Class<T> type) {
+        for (int t = 0; t < types.length; t++) {
+            if (types[t] == type) {
+                return (T[]) pools[t];
+            }
+        }
+
+        throw new IllegalArgumentException("Component type not owned by this group");
+    }
+
+    public <T extends Component> T get(final Class<T> type, final int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+
+        return pool(type)[index];
+    }
+
+    public Entity get(final int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+
+        return entities[index];
+    }
+
+    public Entity[] getEntities() {
+        return entities;
+    }
+
+    public int indexOf(final Entity entity) {
+        int id = entity.id;
+
+        if (id < 0 || id >= sparse.length) {
+            return -1;
+        }
+
+        int index = sparse[id];
+        return index < size && entities[index] == entity ? index : -1;
+    }
+
+    public boolean contains(final Entity entity) {
+        return indexOf(entity) >= 0;
+    }
+
+    public boolean owns(final Class<?> type) {
+        return family.has(type);
+    }
+
+    public Family getFamily() {
+        return family;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+}
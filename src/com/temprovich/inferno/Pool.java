@@ -0,0 +1,258 @@
+package com.temprovich.inferno;
+
+import java.util.Arrays;
+
+/**
+ * Recycled entity shells and component instances of a registry. Entities the
+ * registry destroys are flushed into the pool, each component first getting
+ * {@link Component#onReset}, and {@link Registry#create} and
+ * {@link Registry#obtain} hand them out again before allocating. References kept
+ * to a destroyed entity or its components must not be used once they may have
+ * been handed out again. A pooled shell added to a registry directly, as a
+ * {@link Rollback} does when it restores a destroyed entity, leaves the pool.
+ */
+public final class Pool {
+
+    private static final int DEFAULT_ENTITY_CAPACITY = 1024;
+    private static final int DEFAULT_COMPONENT_CAPACITY = 1024;
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    private Entity[] entities;
+    private int entityCount;
+    private int entityCapacity;
+
+    // free components by component type index
+    private Component[][] components;
+    private int[] componentCounts;
+    private int[] componentCapacities;
+    private int componentCapacity;
+
+    private long entityHits;
+    private long entityMisses;
+    private long componentHits;
+    private long componentMisses;
+    private long discarded;
+
+    Pool() {
+        this.entities = new Entity[DEFAULT_INITIAL_CAPACITY];
+        this.entityCount = 0;
+        this.entityCapacity = DEFAULT_ENTITY_CAPACITY;
+        this.components = new Component[DEFAULT_INITIAL_CAPACITY][];
+        this.componentCounts = new int[DEFAULT_INITIAL_CAPACITY];
+        this.componentCapacities = new int[DEFAULT_INITIAL_CAPACITY];
+        this.componentCapacity = DEFAULT_COMPONENT_CAPACITY;
+    }
+
+    Entity entity() {
+        if (entityCount == 0) {
+            entityMisses++;
+            return new Entity();
+        }
+
+        entityHits++;
+        Entity entity = entities[--entityCount];
+        entities[entityCount] = null;
+        entity.pool = null;
+        return entity;
+    }
+
+    // takes a pooled shell out of the pool without handing it out, for shells that
+    // are added to a registry again directly, as a rollback does
+    void claim(final Entity entity) {
+        Entity last = entities[--entityCount];
+        entities[entity.slot] = last;
+        last.slot = entity.slot;
+        entities[entityCount] = null;
+        entity.pool = null;
+    }
+
+    <T extends Component> T component(final Class<T> type) {
+        int index = ComponentType.index(type);
+
+        if (index < componentCounts.length && componentCounts[index] > 0) {
+            componentHits++;
+            Component[] free = components[index];
+            Component component = free[--componentCounts[index]];
+            free[componentCounts[index]] = null;
+            return type.cast(component);
+        }
+
+        componentMisses++;
+        return type.cast(ComponentCopier.of(type).newInstance());
+    }
+
+    // takes back a flushed entity shell
+    void recycle(final Entity entity) {
+        if (entityCount == entityCapacity) {
+            discarded++;
+            return;
+        }
+        if (entityCount == entities.length) {
+            entities = Arrays.copyOf(entities, Math.min(entityCapacity, (entities.length * 3) / 2 + 1));
+        }
+
+        entity.reset();
+        entity.pool = this;
+        entity.slot = entityCount;
+        entities[entityCount++] = entity;
+    }
+
+    // takes back a component already detached from its entity and disabled
+    void recycle(final Component component) {
+        int index = ComponentType.index(component.getClass());
+
+        if (index >= componentCounts.length) {
+            int length = Math.max(index + 1, (componentCounts.length * 3) / 2 + 1);
+            components = Arrays.copyOf(components, length);
+            componentCounts = Arrays.copyOf(componentCounts, length);
+            componentCapacities = Arrays.copyOf(componentCapacities, length);
+        }
+
+        int capacity = componentCapacities[index] != 0 ? componentCapacities[index] : componentCapacity;
+        int count = componentCounts[index];
+
+        if (count >= capacity) {
+            discarded++;
+            return;
+        }
+
+        Component[] free = components[index];
+
+        if (free == null) {
+            free = components[index] = new Component[Math.min(capacity, DEFAULT_INITIAL_CAPACITY)];
+        } else if (count == free.length) {
+            free = components[index] = Arrays.copyOf(free, Math.min(capacity, (free.length * 3) / 2 + 1));
+        }
+
+        component.onReset();
+        free[count] = component;
+        componentCounts[index] = count + 1;
+    }
+
+    /**
+     * Sets how many entity shells are kept, dropping any above the new limit.
+     */
+    public void setEntityCapacity(final int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Negative capacity: " + capacity);
+        }
+
+        entityCapacity = capacity;
+
+        if (entityCount > capacity) {
+            drop(capacity);
+        }
+    }
+
+    /**
+     * Sets how many components of each type are kept, unless a type has its own
+     * capacity.
+     */
+    public void setComponentCapacity(final int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Negative capacity: " + capacity);
+        }
+
+        componentCapacity = capacity;
+
+        for (int i = 0; i < componentCounts.length; i++) {
+            if (componentCapacities[i] == 0) {
+                trim(i, capacity);
+            }
+        }
+    }
+
+    public void setComponentCapacity(final Class<? extends Component> type, final int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Negative capacity: " + capacity);
+        }
+
+        int index = ComponentType.index(type);
+
+        if (index >= componentCounts.length) {
+            int length = Math.max(index + 1, (componentCounts.length * 3) / 2 + 1);
+            components = Arrays.copyOf(components, length);
+            componentCounts = Arrays.copyOf(componentCounts, length);
+            componentCapacities = Arrays.copyOf(componentCapacities, length);
+        }
+
+        // 0 marks a type without its own capacity, so a capacity of 0 is kept as -1
+        componentCapacities[index] = capacity == 0 ? -1 : capacity;
+        trim(index, capacity);
+    }
+
+    private void drop(final int count) {
+        for (int i = count; i < entityCount; i++) {
+            entities[i].pool = null;
+            entities[i] = null;
+        }
+
+        entityCount = count;
+    }
+
+    private void trim(final int index, final int capacity) {
+        if (componentCounts[index] > capacity) {
+            Arrays.fill(components[index], capacity, componentCounts[index], null);
+            componentCounts[index] = capacity;
+        }
+    }
+
+    /**
+     * Drops every pooled entity and component.
+     */
+    public void clear() {
+        drop(0);
+
+        for (int i = 0; i < componentCounts.length; i++) {
+            if (components[i] != null) {
+                Arrays.fill(components[i], 0, componentCounts[i], null);
+            }
+
+            componentCounts[i] = 0;
+        }
+    }
+
+    public int getEntityCapacity() {
+        return entityCapacity;
+    }
+
+    public int getComponentCapacity() {
+        return componentCapacity;
+    }
+
+    public int getEntityCount() {
+        return entityCount;
+    }
+
+    public int getComponentCount(final Class<? extends Component> type) {
+        int index = ComponentType.index(type);
+        return index < componentCounts.length ? componentCounts[index] : 0;
+    }
+
+    public long getEntityHits() {
+        return entityHits;
+    }
+
+    public long getEntityMisses() {
+        return entityMisses;
+    }
+
+    public long getComponentHits() {
+        return componentHits;
+    }
+
+    public long getComponentMisses() {
+        return componentMisses;
+    }
+
+    // objects handed back while their pool was full
+    public long getDiscarded() {
+        return discarded;
+    }
+
+    public double getHitRate() {
+        long hits = entityHits + componentHits;
+        long lookups = hits + entityMisses + componentMisses;
+        return lookups == 0L ? 0.0 : (double) hits / lookups;
+    }
+}
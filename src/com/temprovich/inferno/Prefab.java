@@ -0,0 +1,89 @@
+package com.temprovich.inferno;
+
+/**
+ * Template for spawning many alike entities. A prefab keeps its own copies of the
+ * template components together with the flags and tags, and every instance gets
+ * fresh component copies made by a routine compiled once per type. Instances are
+ * added to a registry as one batch through {@link Registry#spawn}. Component
+ * types that cannot be copied field by field need {@link Component#copyFrom},
+ * and are rejected when the prefab is made otherwise.
+ */
+public final class Prefab {
+
+    private final Component[] templates;
+    private final ComponentCopier[] copiers;
+    private final int[] tags;
+    private final int flags;
+
+    private Prefab(final Component[] templates, final int[] tags, final int flags) {
+        this.templates = new Component[templates.length];
+        this.copiers = new ComponentCopier[templates.length];
+        this.tags = tags;
+        this.flags = flags;
+
+        for (int i = 0; i < templates.length; i++) {
+            if (templates[i] == null) {
+                throw new NullPointerException("component");
+            }
+
+            copiers[i] = ComponentCopier.of(templates[i].getClass());
+            this.templates[i] = copiers[i].copyOf(templates[i]);
+        }
+    }
+
+    /**
+     * A prefab of the entity's current components, flags and tags. Later changes to
+     * the entity do not affect the prefab.
+     */
+    public static Prefab of(final Entity entity) {
+        Component[] components = new Component[entity.getComponents().size()];
+
+        for (int i = 0; i < components.length; i++) {
+            components[i] = entity.getComponents().get(i);
+        }
+
+        return new Prefab(components, tagsOf(entity), entity.flags);
+    }
+
+    public static Prefab of(final Component... components) {
+        return new Prefab(components, new int[0], 0);
+    }
+
+    /**
+     * A new, unregistered entity holding copies of the template components.
+     */
+    public Entity instantiate() {
+        return instantiate(null);
+    }
+
+    // draws the shell and the components from the pool when there is one
+    Entity instantiate(final Pool pool) {
+        Entity entity = pool != null ? pool.entity() : new Entity(templates.length);
+
+        for (int i = 0; i < templates.length; i++) {
+            Component component = pool != null ? pool.component(templates[i].getClass()) : copiers[i].newInstance();
+            entity.attach(copiers[i].copyInto(component, templates[i]));
+        }
+
+        for (var tag : tags) {
+            entity.signature().set(tag);
+        }
+
+        entity.flags = flags;
+        return entity;
+    }
+
+    public int size() {
+        return templates.length;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    private static int[] tagsOf(final Entity entity) {
+        return entity.signature().stream()
+                     .filter(bit -> ComponentType.isTag(ComponentType.type(bit)))
+                     .toArray();
+    }
+}
@@ -0,0 +1,70 @@
+package com.temprovich.inferno;
+
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+/**
+ * Precompiled handle on the live entities of a family. Resolving the family is
+ * done once by {@link Registry#compile}; afterwards iterating the query involves
+ * no hashing, lookups or allocation. The epoch changes whenever an entity enters
+ * or leaves the result, so derived data can be cached against it.
+ */
+public final class Query implements Iterable<Entity> {
+
+    private final Family family;
+    private final EntitySet entities;
+
+    Query(Family family, EntitySet entities) {
+        this.family = family;
+        this.entities = entities;
+    }
+
+    public Entity get(int index) {
+        return entities.get(index);
+    }
+
+    public boolean contains(Entity entity) {
+        return entities.contains(entity);
+    }
+
+    public int size() {
+        return entities.size();
+    }
+
+    public boolean isEmpty() {
+        return entities.isEmpty();
+    }
+
+    public long getEpoch() {
+        return entities.getEpoch();
+    }
+
+    public boolean hasChangedSince(long epoch) {
+        return entities.getEpoch() != epoch;
+    }
+
+    public Family getFamily() {
+        return family;
+    }
+
+    public EntitySet getEntities() {
+        return entities;
+    }
+
+    @Override
+    public void forEach(Consumer<? super Entity> action) {
+        for (int i = 0, n = entities.size(); i < n; i++) {
+            action.accept(entities.get(i));
+        }
+    }
+
+    @Override
+    public Iterator<Entity> iterator() {
+        return entities.iterator();
+    }
+
+    @Override
+    public String toString() {
+        return "Query [family=" + family + ", size=" + entities.size() + ", epoch=" + entities.getEpoch() + "]";
+    }
+}
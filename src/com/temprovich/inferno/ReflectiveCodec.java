@@ -0,0 +1,193 @@
+package com.temprovich.inferno;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Codec resolved once from the declared fields of a type. Every field gets a
+ * getter and a setter handle adapted to an erased receiver, invoked exactly, and a
+ * tag telling how to encode it, so encoding a value is a loop over plain field
+ * accesses without further reflection.
+ */
+final class ReflectiveCodec<T> implements Codec<T> {
+
+    private static final int BOOLEAN = 0;
+    private static final int BYTE = 1;
+    private static final int SHORT = 2;
+    private static final int CHAR = 3;
+    private static final int INT = 4;
+    private static final int LONG = 5;
+    private static final int FLOAT = 6;
+    private static final int DOUBLE = 7;
+    private static final int STRING = 8;
+
+    private final Class<T> type;
+    private final MethodHandle constructor;
+    private final MethodHandle[] getters;
+    private final MethodHandle[] setters;
+    private final int[] kinds;
+
+    ReflectiveCodec(final Class<T> type) {
+        this.type = type;
+
+        List<MethodHandle> getters = new ArrayList<MethodHandle>();
+        List<MethodHandle> setters = new ArrayList<MethodHandle>();
+        List<Integer> tags = new ArrayList<Integer>();
+
+        try {
+            // full access to the type, which is often a private nested class
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+            Constructor<T> ctor = type.getDeclaredConstructor();
+            ctor.setAccessible(true);
+            this.constructor = lookup.unreflectConstructor(ctor);
+
+            for (Class<?> c = type; c != null && c != Object.class && c != Component.class; c = c.getSuperclass()) {
+                for (var field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                        continue;
+                    }
+
+                    Class<?> t = field.getType();
+                    tags.add(kind(field));
+                    getters.add(lookup.unreflectGetter(field).asType(MethodType.methodType(t, Object.class)));
+                    setters.add(lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, t)));
+                }
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot generate a codec for " + type.getName(), e);
+        }
+
+        this.getters = getters.toArray(new MethodHandle[0]);
+        this.setters = setters.toArray(new MethodHandle[0]);
+        this.kinds = new int[tags.size()];
+
+        for (int i = 0; i < kinds.length; i++) {
+            kinds[i] = tags.get(i);
+        }
+    }
+
+    @Override
+    public void write(final T value, final ByteBuffer out) {
+        Object o = value;
+
+        try {
+            for (int i = 0; i < getters.length; i++) {
+                MethodHandle g = getters[i];
+
+                switch (kinds[i]) {
+                    case BOOLEAN: out.put((boolean) g.invokeExact(o) ? (byte) 1 : (byte) 0); break;
+                    case BYTE: out.put((byte) g.invokeExact(o)); break;
+                    case SHORT: out.putShort((short) g.invokeExact(o)); break;
+                    case CHAR: out.putChar((char) g.invokeExact(o)); break;
+                    case INT: out.putInt((int) g.invokeExact(o)); break;
+                    case LONG: out.putLong((long) g.invokeExact(o)); break;
+                    case FLOAT: out.putFloat((float) g.invokeExact(o)); break;
+                    case DOUBLE: out.putDouble((double) g.invokeExact(o)); break;
+                    default: writeString((String) g.invokeExact(o), out); break;
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public T read(final ByteBuffer in) {
+        T value = instantiate();
+        read(in, value);
+        return value;
+    }
+
+    @Override
+    public void read(final ByteBuffer in, final T value) {
+        Object o = value;
+
+        try {
+            for (int i = 0; i < setters.length; i++) {
+                MethodHandle s = setters[i];
+
+                switch (kinds[i]) {
+                    case BOOLEAN: s.invokeExact(o, in.get() != 0); break;
+                    case BYTE: s.invokeExact(o, in.get()); break;
+                    case SHORT: s.invokeExact(o, in.getShort()); break;
+                    case CHAR: s.invokeExact(o, in.getChar()); break;
+                    case INT: s.invokeExact(o, in.getInt()); break;
+                    case LONG: s.invokeExact(o, in.getLong()); break;
+                    case FLOAT: s.invokeExact(o, in.getFloat()); break;
+                    case DOUBLE: s.invokeExact(o, in.getDouble()); break;
+                    default: s.invokeExact(o, readString(in)); break;
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T instantiate() {
+        try {
+            return (T) constructor.invoke();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot instantiate " + type.getName(), e);
+        }
+    }
+
+    static void writeString(final String s, final ByteBuffer out) {
+        if (s == null) {
+            out.putInt(-1);
+            return;
+        }
+
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.putInt(bytes.length);
+        out.put(bytes);
+    }
+
+    static String readString(final ByteBuffer in) {
+        int length = in.getInt();
+
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int kind(final Field field) {
+        Class<?> t = field.getType();
+
+        if (Modifier.isFinal(field.getModifiers())) {
+            throw new IllegalArgumentException("Field " + field.getName() + " of " + field.getDeclaringClass().getName() + " is final");
+        }
+
+        if (t == boolean.class) return BOOLEAN;
+        if (t == byte.class) return BYTE;
+        if (t == short.class) return SHORT;
+        if (t == char.class) return CHAR;
+        if (t == int.class) return INT;
+        if (t == long.class) return LONG;
+        if (t == float.class) return FLOAT;
+        if (t == double.class) return DOUBLE;
+        if (t == String.class) return STRING;
+
+        throw new IllegalArgumentException("Field " + field.getName() + " of " + field.getDeclaringClass().getName() + " has unsupported type " + t.getName());
+    }
+}
@@ -0,0 +1,82 @@
+package com.temprovich.inferno;
+
+/**
+ * Axis-aligned box or sphere used for spatial queries. Two dimensional regions
+ * span the whole z axis.
+ */
+public final class Region {
+
+    final float minX, minY, minZ;
+    final float maxX, maxY, maxZ;
+
+    final float centerX, centerY, centerZ;
+    final float radiusSquared;
+    final boolean spherical;
+
+    private Region(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.maxZ = maxZ;
+        this.centerX = 0f;
+        this.centerY = 0f;
+        this.centerZ = 0f;
+        this.radiusSquared = 0f;
+        this.spherical = false;
+    }
+
+    private Region(float x, float y, float z, float radius, boolean planar) {
+        this.minX = x - radius;
+        this.minY = y - radius;
+        this.minZ = planar ? Float.NEGATIVE_INFINITY : z - radius;
+        this.maxX = x + radius;
+        this.maxY = y + radius;
+        this.maxZ = planar ? Float.POSITIVE_INFINITY : z + radius;
+        this.centerX = x;
+        this.centerY = y;
+        this.centerZ = z;
+        this.radiusSquared = radius * radius;
+        this.spherical = true;
+    }
+
+    public static Region box(float minX, float minY, float maxX, float maxY) {
+        return new Region(minX, minY, Float.NEGATIVE_INFINITY, maxX, maxY, Float.POSITIVE_INFINITY);
+    }
+
+    public static Region box(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        return new Region(minX, minY, minZ, maxX, maxY, maxZ);
+    }
+
+    public static Region circle(float x, float y, float radius) {
+        return new Region(x, y, 0f, radius, true);
+    }
+
+    public static Region sphere(float x, float y, float z, float radius) {
+        return new Region(x, y, z, radius, false);
+    }
+
+    public boolean contains(float x, float y, float z) {
+        if (x < minX || x > maxX || y < minY || y > maxY || z < minZ || z > maxZ) {
+            return false;
+        }
+        if (!spherical) {
+            return true;
+        }
+
+        float dx = x - centerX;
+        float dy = y - centerY;
+        float dz = Float.isInfinite(minZ) ? 0f : z - centerZ;
+        return dx * dx + dy * dy + dz * dz <= radiusSquared;
+    }
+
+    @Override
+    public String toString() {
+        if (spherical) {
+            return "Region [center=(" + centerX + ", " + centerY + ", " + centerZ + "), radius=" + (float) Math.sqrt(radiusSquared) + "]";
+        }
+
+        return "Region [min=(" + minX + ", " + minY + ", " + minZ + "), max=(" + maxX + ", " + maxY + ", " + maxZ + ")]";
+    }
+}
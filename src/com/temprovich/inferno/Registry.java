@@ -1,28 +1,81 @@
 package com.temprovich.inferno;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Stream;
 import java.util.Collection;
 
 import com.temprovich.inferno.system.EntitySystem;
+import com.temprovich.inferno.system.IterativeSystem;
+import com.temprovich.inferno.util.ToFloatFunction;
 
 public final class Registry implements Iterable<Entity> {
 
     private static final int DEFAULT_INITIAL_CAPACITY = 16;
 
-    private final List<Entity> entities;
-    private final Map<Family, List<Entity>> views;
+    private final EntitySet entities;
+    private final Map<Family, EntitySet> views;
+    private final Map<Family, Query> queries;
 
     private final Deque<Task> tasks;
+
+    // tag changes made while updating, applied before the tasks; ~bit marks an untag
+    private Entity[] retagged;
+    private int[] retagBits;
+    private int retagCount;
     private final List<EntitySystem> systems;
     private final List<EntityListener> listeners;
     private final Map<Family, List<EntityListener>> filteredListeners;
+    private final Map<BitSet, Archetype> archetypes;
+    private final Map<Class<?>, OwningGroup> owners;
+    private final List<SpatialIndex<?>> spatialIndices;
+    private final List<Mirror> mirrors;
+    private final List<ComponentIndex<?, ?>> componentIndices;
+    private final EntitySet[] flagIndices;
+    private int indexedFlags;
+
+    private final Map<Class<?>, Codec<?>> codecs;
+
+    private ChangeLog changes;
+    // the log holds every change made since this sequence number
+    private long changesSince;
+
+    // counts every recorded change, whether tracked or not, to stamp entities
+    private long versions;
+
+    private long tick;
+    private long sequence;
+    private Journal journal;
+    private Pool pool;
+
+    // singleton resources by resource type index
+    private Object[] resources;
+
+    private int[] freeIds;
+    private int freeCount;
+    private int nextId;
+
+    // marks the ids of the entities a batch removes
+    private long[] removalMarks;
+    private long removalMark;
+
+    private long viewHits;
+    private long viewMisses;
 
     private boolean updating;
 
@@ -31,22 +84,90 @@ public final class Registry implements Iterable<Entity> {
     }
 
     public Registry(int initialCapacity) {
-        this.entities = new ArrayList<Entity>(initialCapacity);
-        this.views = new HashMap<Family, List<Entity>>(initialCapacity);
+        this.entities = new EntitySet(initialCapacity);
+        this.views = new IdentityHashMap<Family, EntitySet>(initialCapacity);
+        this.queries = new IdentityHashMap<Family, Query>();
         this.tasks = new LinkedBlockingDeque<Task>();
+        this.retagged = new Entity[DEFAULT_INITIAL_CAPACITY];
+        this.retagBits = new int[DEFAULT_INITIAL_CAPACITY];
+        this.retagCount = 0;
         this.systems = new ArrayList<EntitySystem>();
         this.listeners = new ArrayList<EntityListener>();
         this.filteredListeners = new HashMap<Family, List<EntityListener>>();
+        this.archetypes = new HashMap<BitSet, Archetype>();
+        this.owners = new HashMap<Class<?>, OwningGroup>();
+        this.spatialIndices = new ArrayList<SpatialIndex<?>>();
+        this.mirrors = new ArrayList<Mirror>();
+        this.componentIndices = new ArrayList<ComponentIndex<?, ?>>();
+        this.flagIndices = new EntitySet[Integer.SIZE];
+        this.indexedFlags = 0;
+        this.resources = new Object[DEFAULT_INITIAL_CAPACITY];
+        this.codecs = new HashMap<Class<?>, Codec<?>>();
+        this.changes = null;
+        this.changesSince = 0L;
+        this.versions = 0L;
+        this.tick = 0L;
+        this.sequence = 0L;
+        this.journal = null;
+        this.pool = null;
+        this.freeIds = new int[initialCapacity];
+        this.freeCount = 0;
+        this.nextId = 0;
+        this.removalMarks = new long[initialCapacity];
+        this.removalMark = 0L;
+        this.viewHits = 0L;
+        this.viewMisses = 0L;
         this.updating = false;
     }
 
+    /**
+     * A new, unregistered entity, taken from the pool when pooling.
+     */
+    public final Entity create() {
+        return pool != null ? pool.entity() : new Entity();
+    }
+
+    /**
+     * A new component of the given type, or when pooling a recycled one that went
+     * through {@link Component#onReset}.
+     */
+    public final <T extends Component> T obtain(final Class<T> type) {
+        return pool != null ? pool.component(type) : type.cast(ComponentCopier.of(type).newInstance());
+    }
+
     @SafeVarargs
     public final <T extends Component> Entity emplace(final T... components) {
-        Entity entity = new Entity();
+        Entity entity = create();
         entity.addAll(components);
         add(entity);
         return entity;
     }
+
+    /**
+     * Creates the given number of instances of a prefab and adds them as one batch,
+     * or queues the batch while updating.
+     */
+    public final Entity[] spawn(final Prefab prefab, final int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Negative count: " + count);
+        }
+
+        final Entity[] batch = new Entity[count];
+
+        for (int i = 0; i < count; i++) {
+            batch[i] = prefab.instantiate(pool);
+        }
+
+        if (updating) {
+            tasks.add(() -> {
+                addBatch(batch, 0, count);
+            });
+        } else {
+            addBatch(batch, 0, count);
+        }
+
+        return batch;
+    }
     
     public final void add(final Entity entity) {
         if (updating) {
@@ -60,47 +181,231 @@ public final class Registry implements Iterable<Entity> {
         addInternal(entity);
     }
 
+    /**
+     * Adds the entities in one batch per component signature, with listeners
+     * notified once per batch through {@link EntityListener#onEntitiesAdd}.
+     */
     public final void add(final Entity... entities) {
-        for (var entity : entities) {
-            add(entity);
+        final Entity[] batch = entities.clone();
+
+        if (updating) {
+            tasks.add(() -> {
+                addBatch(batch, 0, batch.length);
+            });
+
+            return;
         }
+
+        addBatch(batch, 0, batch.length);
     }
 
     public final void add(final Collection<Entity> entities) {
-        for (var entity : entities) {
-            add(entity);
-        }
+        add(entities.toArray(new Entity[entities.size()]));
     }
     
     private void addInternal(Entity entity) {
-        if (entity.getRegistry() != null || entities.contains(entity)) {
+        if (entity.getRegistry() != null) {
             throw new IllegalArgumentException("Entity already added to a registry");
         }
         if (entity.isEnabled()) {
             throw new IllegalArgumentException("Entity is already enabled");
         }
+
+        for (var index : componentIndices) {
+            if (entity.has(index.getType())) {
+                index.check(entity);
+            }
+        }
         
-        entities.add(entity);
+        if (entity.pool != null) {
+            entity.pool.claim(entity);
+        }
+
         entity.setRegistry(this);
         entity.enable();
+
+        Archetype archetype = archetypeOf(entity);
+        entity.archetype = archetype;
+        entity.id = acquireId();
+        entities.insert(entity);
+        record(ChangeLog.CREATE, entity, -1);
         
-        for (var f : views.keySet()) {
-            if (f.isMember(entity)) {
-                views.get(f).add(entity);
-            }
+        for (var view : archetype.views) {
+            view.insert(entity);
+        }
+
+        for (var group : archetype.groups) {
+            group.insert(entity);
+        }
+
+        for (int bits = entity.flags & indexedFlags; bits != 0; bits &= bits - 1) {
+            flagIndices[Integer.numberOfTrailingZeros(bits)].insert(entity);
         }
 
         for (var l : listeners) {
             l.onEntityAdd(entity);
         }
 
-        for (var entry : filteredListeners.entrySet()) {
-            if (entry.getKey().isMember(entity)) {
-                for (var l : entry.getValue()) {
-                    l.onEntityAdd(entity);
+        for (var filtered : archetype.listeners) {
+            for (var l : filtered) {
+                l.onEntityAdd(entity);
+            }
+        }
+    }
+
+    // adds fresh entities grouped by signature: each archetype is resolved once and
+    // every view, group and listener is handed a whole group at a time
+    void addBatch(final Entity[] batch, final int from, final int to) {
+        if (from >= to) {
+            return;
+        }
+
+        // entities of a batch mostly come in runs of one signature, so the last
+        // archetype is tried before the lookup
+        int[] groupOf = new int[to - from];
+        List<Archetype> kinds = new ArrayList<Archetype>();
+        Map<Archetype, Integer> groups = new IdentityHashMap<Archetype, Integer>();
+        int[] counts = new int[DEFAULT_INITIAL_CAPACITY];
+        Archetype last = null;
+        int group = -1;
+        int[] ids = new int[to - from];
+        int logged = changes != null ? changes.size() : 0;
+        int done = from;
+
+        for (var index : componentIndices) {
+            index.check(batch, from, to);
+        }
+
+        // a single pass in the batch's own order, usually the order the entities
+        // were allocated in, undone if an entity turns out to be invalid
+        try {
+            for (int i = from; i < to; i++, done++) {
+                Entity entity = batch[i];
+
+                if (entity.getRegistry() != null) {
+                    throw new IllegalArgumentException("Entity already added to a registry");
+                }
+                if (entity.isEnabled()) {
+                    throw new IllegalArgumentException("Entity is already enabled");
+                }
+
+                if (last == null || !last.signature.equals(entity.signature())) {
+                    last = archetypeOf(entity);
+                    Integer known = groups.get(last);
+
+                    if (known == null) {
+                        known = kinds.size();
+                        kinds.add(last);
+                        groups.put(last, known);
+
+                        if (known == counts.length) {
+                            counts = Arrays.copyOf(counts, (counts.length * 3) / 2 + 1);
+                        }
+                    }
+
+                    group = known;
+                }
+
+                if (entity.pool != null) {
+                    entity.pool.claim(entity);
+                }
+
+                entity.setRegistry(this);
+                entity.enable();
+                entity.archetype = last;
+                entity.id = acquireId();
+                ids[i - from] = entity.id;
+                groupOf[i - from] = group;
+                counts[group]++;
+                record(ChangeLog.CREATE, entity, -1);
+            }
+        } catch (RuntimeException e) {
+            for (int i = done - 1; i >= from; i--) {
+                Entity entity = batch[i];
+                entity.disable();
+                entity.removeRegistry();
+                entity.archetype = null;
+                releaseId(entity);
+            }
+
+            if (changes != null) {
+                changes.truncate(logged);
+            }
+
+            throw e;
+        }
+
+        entities.insertAll(batch, ids, from, to);
+
+        if (indexedFlags != 0) {
+            for (int i = from; i < to; i++) {
+                for (int bits = batch[i].flags & indexedFlags; bits != 0; bits &= bits - 1) {
+                    flagIndices[Integer.numberOfTrailingZeros(bits)].insert(batch[i]);
                 }
             }
         }
+
+        if (kinds.size() == 1) {
+            insertBatch(last, batch, ids, from, to);
+
+            // listeners run once every view holds the whole batch, as with a single add
+            for (var l : listeners) {
+                l.onEntitiesAdd(batch, from, to);
+            }
+
+            notifyAdd(last, batch, from, to);
+            return;
+        }
+
+        // counting sort of the references into one run per archetype
+        Entity[] sorted = new Entity[to - from];
+        int[] sortedIds = new int[to - from];
+        int[] cursors = new int[kinds.size()];
+
+        for (int g = 1; g < cursors.length; g++) {
+            cursors[g] = cursors[g - 1] + counts[g - 1];
+        }
+
+        for (int i = 0; i < sorted.length; i++) {
+            int slot = cursors[groupOf[i]]++;
+            sorted[slot] = batch[from + i];
+            sortedIds[slot] = ids[i];
+        }
+
+        for (int g = 0; g < cursors.length; g++) {
+            int end = cursors[g];
+            int start = end - counts[g];
+            insertBatch(kinds.get(g), sorted, Arrays.copyOfRange(sortedIds, start, end), start, end);
+        }
+
+        for (var l : listeners) {
+            l.onEntitiesAdd(batch, from, to);
+        }
+
+        for (int g = 0; g < cursors.length; g++) {
+            notifyAdd(kinds.get(g), sorted, cursors[g] - counts[g], cursors[g]);
+        }
+    }
+
+    private void notifyAdd(final Archetype archetype, final Entity[] batch, final int from, final int to) {
+        for (var filtered : archetype.listeners) {
+            for (var l : filtered) {
+                l.onEntitiesAdd(batch, from, to);
+            }
+        }
+    }
+
+    // fills the views and groups of one archetype
+    private void insertBatch(final Archetype archetype, final Entity[] batch, final int[] ids, final int from, final int to) {
+        for (var view : archetype.views) {
+            view.insertAll(batch, ids, from, to);
+        }
+
+        for (var group : archetype.groups) {
+            for (int i = from; i < to; i++) {
+                group.insert(batch[i]);
+            }
+        }
     }
 
     public final void destroy(final Entity entity) {
@@ -126,21 +431,70 @@ public final class Registry implements Iterable<Entity> {
     }
 
     public final void destroy(final boolean immediate, final int start, final int end) {
+        Entity[] range = new Entity[end - start];
+
         for (int i = start; i < end; i++) {
-            destroy(immediate, entities.get(i));
+            range[i - start] = entities.get(i);
         }
+
+        destroy(immediate, range);
     }
 
+    /**
+     * Destroys the entities as one batch: every view is compacted in a single pass
+     * and listeners are notified once per batch through
+     * {@link EntityListener#onEntitiesRemove}.
+     */
     public final void destroy(final boolean immediate, final Entity... entities) {
-        for (var entity : entities) {
-            destroy(immediate, entity);
+        final Entity[] batch = entities.clone();
+
+        if (updating && !immediate) {
+            tasks.add(() -> {
+                removeBatch(batch, batch.length, false);
+            });
+
+            return;
         }
+
+        removeBatch(batch, batch.length, false);
     }
 
     public final void destroy(final boolean immediate, final Collection<Entity> entities) {
+        destroy(immediate, entities.toArray(new Entity[entities.size()]));
+    }
+
+    /**
+     * Destroys every entity the family matches as one batch.
+     */
+    public final void destroy(final Family family) {
+        if (updating) {
+            tasks.add(() -> {
+                removeMatching(family);
+            });
+
+            return;
+        }
+
+        removeMatching(family);
+    }
+
+    private void removeMatching(final Family family) {
+        Entity[] batch = new Entity[entities.size()];
+        Archetype last = null;
+        boolean accepted = false;
+        int n = 0;
+
         for (var entity : entities) {
-            destroy(immediate, entity);
+            if (entity.archetype != last) {
+                last = entity.archetype;
+                accepted = last.accepts(family);
+            }
+            if (accepted) {
+                batch[n++] = entity;
+            }
         }
+
+        removeBatch(batch, n, false);
     }
 
     private void removeInternal(final Entity entity) {
@@ -150,31 +504,204 @@ public final class Registry implements Iterable<Entity> {
         if (!entity.isEnabled()) {
             throw new IllegalArgumentException("Entity is not enabled");
         }
-        if (!entities.contains(entity)) {
-            throw new IllegalArgumentException("Entity not added to this registry");
-        }
+        Archetype archetype = entity.archetype;
+        record(ChangeLog.DESTROY, entity, -1);
 
         // inform listeners as long as the entity is still active
         for (var l : listeners) {
             l.onEntityRemove(entity);
         }
         
-        for (var entry : filteredListeners.entrySet()) {
-            if (entry.getKey().isMember(entity)) {
-                for (var l : entry.getValue()) {
-                    l.onEntityRemove(entity);
-                }
+        for (var filtered : archetype.listeners) {
+            for (var l : filtered) {
+                l.onEntityRemove(entity);
             }
         }
         
         // actually remove entity
         entity.disable();
         entity.removeRegistry();
-        entities.remove(entity);
-        entity.flush();
+        entity.archetype = null;
+        entities.erase(entity);
+        entity.flush(pool);
         
-        for (var view : views.values()) {
-            view.remove(entity);
+        for (var view : archetype.views) {
+            view.erase(entity);
+        }
+
+        for (var group : archetype.groups) {
+            group.erase(entity);
+        }
+
+        eraseFlags(entity);
+
+        releaseId(entity);
+
+        if (pool != null) {
+            pool.recycle(entity);
+        }
+    }
+
+    final void retag(final Entity entity, final Class<? extends Tag> type, final boolean value) {
+        int bit = ComponentType.index(type);
+
+        if (updating) {
+            if (retagCount == retagged.length) {
+                int capacity = (retagged.length * 3) / 2 + 1;
+                retagged = Arrays.copyOf(retagged, capacity);
+                retagBits = Arrays.copyOf(retagBits, capacity);
+            }
+
+            retagged[retagCount] = entity;
+            retagBits[retagCount++] = value ? bit : ~bit;
+            return;
+        }
+
+        retagInternal(entity, bit, value);
+    }
+
+    // listeners may tag further entities, which join the end of the buffer
+    private void applyRetags() {
+        for (int i = 0; i < retagCount; i++) {
+            int bit = retagBits[i];
+            retagInternal(retagged[i], bit >= 0 ? bit : ~bit, bit >= 0);
+            retagged[i] = null;
+        }
+
+        retagCount = 0;
+    }
+
+    private void retagInternal(final Entity entity, final int bit, final boolean value) {
+        BitSet signature = entity.signature();
+
+        if (entity.getRegistry() != this || signature.get(bit) == value) {
+            return;
+        }
+
+        Archetype from = entity.archetype;
+        signature.set(bit, value);
+        Archetype to = archetypeOf(entity);
+
+        // listeners that lose the entity still see it with its old tags
+        signature.set(bit, !value);
+
+        for (var filtered : from.listeners) {
+            if (!containsIdentical(to.listeners, filtered)) {
+                for (var l : filtered) {
+                    l.onEntityRemove(entity);
+                }
+            }
+        }
+
+        signature.set(bit, value);
+        entity.archetype = to;
+        record(ChangeLog.FLAGS, entity, -1);
+
+        for (var view : from.views) {
+            if (!containsIdentical(to.views, view)) {
+                view.erase(entity);
+            }
+        }
+
+        for (var group : from.groups) {
+            if (!containsIdentical(to.groups, group)) {
+                group.erase(entity);
+            }
+        }
+
+        for (var view : to.views) {
+            if (!containsIdentical(from.views, view)) {
+                view.insert(entity);
+            }
+        }
+
+        for (var group : to.groups) {
+            if (!containsIdentical(from.groups, group)) {
+                group.insert(entity);
+            }
+        }
+
+        for (var filtered : to.listeners) {
+            if (!containsIdentical(from.listeners, filtered)) {
+                for (var l : filtered) {
+                    l.onEntityAdd(entity);
+                }
+            }
+        }
+    }
+
+    private static boolean containsIdentical(final List<?> list, final Object element) {
+        for (int i = 0, n = list.size(); i < n; i++) {
+            if (list.get(i) == element) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the live set of entities carrying the given single-bit flag, building
+     * the index on first use. The index follows {@link Entity#setFlags} and its
+     * variants; direct writes to {@link Entity#flags} are not tracked.
+     */
+    public final EntitySet flagged(final int flag) {
+        if (Integer.bitCount(flag) != 1) {
+            throw new IllegalArgumentException("Flag must have exactly one bit set: " + flag);
+        }
+
+        int bit = Integer.numberOfTrailingZeros(flag);
+
+        if (flagIndices[bit] == null) {
+            EntitySet set = new EntitySet();
+
+            for (var entity : entities) {
+                if ((entity.flags & flag) != 0) {
+                    set.insert(entity);
+                }
+            }
+
+            flagIndices[bit] = set;
+            indexedFlags |= flag;
+        }
+
+        return flagIndices[bit];
+    }
+
+    public final void destroyFlagIndex(final int flag) {
+        if (Integer.bitCount(flag) != 1) {
+            throw new IllegalArgumentException("Flag must have exactly one bit set: " + flag);
+        }
+
+        // a bound system iterating the index would silently keep a stale copy
+        for (var system : systems) {
+            if (system instanceof IterativeSystem && ((IterativeSystem) system).getIndexedFlag() == flag) {
+                throw new IllegalStateException("Flag index is used by " + system.getClass().getSimpleName());
+            }
+        }
+
+        flagIndices[Integer.numberOfTrailingZeros(flag)] = null;
+        indexedFlags &= ~flag;
+    }
+
+    final void flagsChanged(final Entity entity, final int old) {
+        record(ChangeLog.FLAGS, entity, -1);
+
+        for (int bits = (old ^ entity.flags) & indexedFlags; bits != 0; bits &= bits - 1) {
+            EntitySet set = flagIndices[Integer.numberOfTrailingZeros(bits)];
+
+            if ((entity.flags & bits & -bits) == 0) {
+                set.erase(entity);
+            } else if (!set.contains(entity)) {
+                set.insert(entity);
+            }
+        }
+    }
+
+    // erases from every index, the flags may have been written directly
+    private void eraseFlags(final Entity entity) {
+        for (int bits = indexedFlags; bits != 0; bits &= bits - 1) {
+            flagIndices[Integer.numberOfTrailingZeros(bits)].erase(entity);
         }
     }
 
@@ -191,9 +718,7 @@ public final class Registry implements Iterable<Entity> {
     }
 
     private final void removeAllInternal() {
-        while (!entities.isEmpty()) {
-            removeInternal(entities.get(0));
-        }
+        removeBatch(toArray(), entities.size(), false);
     }
     
     public final Entity release(final Entity entity) {
@@ -210,8 +735,14 @@ public final class Registry implements Iterable<Entity> {
     }
 
     public final Entity release(final List<Entity> entities) {
-        for (var entity : entities) {
-            release(entity);
+        final Entity[] batch = entities.toArray(new Entity[entities.size()]);
+
+        if (updating) {
+            tasks.add(() -> {
+                removeBatch(batch, batch.length, true);
+            });
+        } else {
+            removeBatch(batch, batch.length, true);
         }
 
         return entities.get(0);
@@ -225,27 +756,35 @@ public final class Registry implements Iterable<Entity> {
             throw new IllegalArgumentException("Entity is not enabled");
         }
         
+        Archetype archetype = entity.archetype;
+        record(ChangeLog.DESTROY, entity, -1);
+
         entity.disable();
         entity.removeRegistry();
-        entities.remove(entity);
+        entity.archetype = null;
+        entities.erase(entity);
         
-        for (var family : views.keySet()) {
-            if (family.isMember(entity)) {
-                views.get(family).remove(entity);
-            }
+        for (var view : archetype.views) {
+            view.erase(entity);
         }
 
+        for (var group : archetype.groups) {
+            group.erase(entity);
+        }
+
+        eraseFlags(entity);
+
         for (var l : listeners) {
             l.onEntityRemove(entity);
         }
         
-        for (var entry : filteredListeners.entrySet()) {
-            if (entry.getKey().isMember(entity)) {
-                for (var l : entry.getValue()) {
-                    l.onEntityRemove(entity);
-                }
+        for (var filtered : archetype.listeners) {
+            for (var l : filtered) {
+                l.onEntityRemove(entity);
             }
         }
+
+        releaseId(entity);
     }
 
     public final void releaseAll() {
@@ -260,43 +799,271 @@ public final class Registry implements Iterable<Entity> {
     }
 
     private void releaseAllInternal() {
-        while (!entities.isEmpty()) {
-            releaseInternal(entities.get(0));
-        }
+        removeBatch(toArray(), entities.size(), true);
     }
 
-    public void update(float dt) {
-        if (updating) {
-            return;
-        }
-
-        updating = true;
-        
-        // update systems
-        for (var p : systems) {
-            if (p.isEnabled()) {
-                p.update(dt);
-            }
-        }
-        
-        // execute pending commands
-        while (!tasks.isEmpty()) {
-            Task t = tasks.poll();
-            t.execute();
-        }
-        
-        updating = false;
+    final void destroyBatch(final Entity[] batch, final int count) {
+        removeBatch(batch, count, false);
     }
 
-    public void dispose() {
-        if (updating) return;
+    // removes valid entities of the batch once each; releasing keeps their
+    // components and tells listeners afterwards, destroying tells them before
+    private void removeBatch(final Entity[] batch, final int count, final boolean release) {
+        long mark = ++removalMark;
+        int n = 0;
+
+        // one run of entities per archetype, for the filtered listeners, views and groups
+        Archetype[] of = new Archetype[count];
+        List<Archetype> kinds = new ArrayList<Archetype>();
+        Map<Archetype, int[]> runs = new IdentityHashMap<Archetype, int[]>();
+        Archetype last = null;
+        int[] run = null;
+
+        for (int i = 0; i < count; i++) {
+            Entity entity = batch[i];
+
+            if (entity.getRegistry() != this) {
+                if (release) {
+                    throw new IllegalArgumentException("Entity not added to this registry");
+                }
 
-        for (int i = 0; i < entities.size(); i++) {
-            destroy(entities.get(i));
-        }
+                continue;
+            }
+            if (!entity.isEnabled()) {
+                throw new IllegalArgumentException("Entity is not enabled");
+            }
+
+            int id = entity.id;
+
+            if (id >= removalMarks.length) {
+                removalMarks = Arrays.copyOf(removalMarks, Math.max(id + 1, (removalMarks.length * 3) / 2 + 1));
+            }
+            if (removalMarks[id] == mark) {
+                continue;
+            }
+
+            removalMarks[id] = mark;
+
+            if (entity.archetype != last) {
+                last = entity.archetype;
+                run = runs.get(last);
+
+                if (run == null) {
+                    run = new int[2];
+                    runs.put(last, run);
+                    kinds.add(last);
+                }
+            }
+
+            run[0]++;
+            of[n] = last;
+            batch[n++] = entity;
+        }
+
+        if (n == 0) {
+            return;
+        }
+
+        for (int i = 0; i < n; i++) {
+            record(ChangeLog.DESTROY, batch[i], -1);
+        }
+
+        Entity[] sorted = batch;
+
+        if (kinds.size() > 1) {
+            sorted = new Entity[n];
+            int offset = 0;
+
+            for (var kind : kinds) {
+                int[] r = runs.get(kind);
+                r[1] = offset;
+                offset += r[0];
+            }
+
+            last = null;
+
+            for (int i = 0; i < n; i++) {
+                if (of[i] != last) {
+                    last = of[i];
+                    run = runs.get(last);
+                }
+
+                sorted[run[1]++] = batch[i];
+            }
+
+            for (var kind : kinds) {
+                runs.get(kind)[1] -= runs.get(kind)[0];
+            }
+        }
+
+        if (!release) {
+            notifyRemove(batch, n, sorted, kinds, runs);
+        }
+
+        // views losing many entities are compacted in one pass, others erase them
+        Map<EntitySet, int[]> hits = new IdentityHashMap<EntitySet, int[]>();
+
+        for (var kind : kinds) {
+            for (var view : kind.views) {
+                int[] hit = hits.get(view);
+
+                if (hit == null) {
+                    hit = new int[2];
+                    hits.put(view, hit);
+                }
+
+                hit[0] += runs.get(kind)[0];
+            }
+        }
+
+        for (var entry : hits.entrySet()) {
+            if (compact(entry.getKey(), entry.getValue()[0], mark)) {
+                entry.getValue()[1] = 1;
+            }
+        }
+
+        for (var kind : kinds) {
+            int[] r = runs.get(kind);
+
+            for (var view : kind.views) {
+                if (hits.get(view)[1] == 0) {
+                    for (int i = r[1]; i < r[1] + r[0]; i++) {
+                        view.erase(sorted[i]);
+                    }
+                }
+            }
+
+            for (var group : kind.groups) {
+                for (int i = r[1]; i < r[1] + r[0]; i++) {
+                    group.erase(sorted[i]);
+                }
+            }
+        }
+
+        if (!compact(entities, n, mark)) {
+            for (int i = 0; i < n; i++) {
+                entities.erase(batch[i]);
+            }
+        }
+
+        if (indexedFlags != 0) {
+            for (int i = 0; i < n; i++) {
+                eraseFlags(batch[i]);
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            Entity entity = batch[i];
+            entity.disable();
+            entity.removeRegistry();
+            entity.archetype = null;
+
+            if (!release) {
+                entity.flush(pool);
+                releaseId(entity);
+
+                if (pool != null) {
+                    pool.recycle(entity);
+                }
+            }
+        }
+
+        if (release) {
+            notifyRemove(batch, n, sorted, kinds, runs);
+
+            for (int i = 0; i < n; i++) {
+                releaseId(batch[i]);
+            }
+        }
+    }
+
+    private void notifyRemove(final Entity[] batch, final int n, final Entity[] sorted, final List<Archetype> kinds, final Map<Archetype, int[]> runs) {
+        for (var l : listeners) {
+            l.onEntitiesRemove(batch, 0, n);
+        }
+
+        for (var kind : kinds) {
+            int[] r = runs.get(kind);
+
+            for (var filtered : kind.listeners) {
+                for (var l : filtered) {
+                    l.onEntitiesRemove(sorted, r[1], r[1] + r[0]);
+                }
+            }
+        }
+    }
+
+    // rebuilds a set losing a quarter or more of its entities in one pass, or
+    // empties it when it loses all of them
+    private boolean compact(final EntitySet set, final int removed, final long mark) {
+        if (removed == set.size()) {
+            set.reset();
+            return true;
+        }
+        if (removed * 4L >= set.size()) {
+            set.eraseMarked(removalMarks, mark);
+            return true;
+        }
+
+        return false;
+    }
+
+    public void update(float dt) {
+        if (updating) {
+            return;
+        }
+
+        updating = true;
+        
+        // update systems
+        for (var p : systems) {
+            if (p.isEnabled()) {
+                p.update(dt);
+            }
+        }
+        
+        // execute pending commands
+        applyRetags();
+
+        while (!tasks.isEmpty()) {
+            Task t = tasks.poll();
+            t.execute();
+            applyRetags();
+        }
+
+        for (var index : spatialIndices) {
+            index.flush();
+        }
+        
+        tick++;
+        sequence++;
+        updating = false;
+
+        for (var mirror : mirrors) {
+            mirror.publish(tick);
+        }
+
+        if (journal != null) {
+            journal.commit();
+        }
+    }
 
-        entities.clear();
+    public void dispose() {
+        if (updating) return;
+
+        removeAllInternal();
         views.clear();
+        queries.clear();
+        Arrays.fill(flagIndices, null);
+        indexedFlags = 0;
+        Arrays.fill(resources, null);
+        archetypes.clear();
+
+        for (var group : owners.values()) {
+            group.clear();
+        }
+
+        owners.clear();
 
         for (int i = systems.size() - 1; i >= 0; i--) {
             EntitySystem p = systems.get(i);
@@ -316,6 +1083,254 @@ public final class Registry implements Iterable<Entity> {
         return entities.contains(entity);
     }
 
+    /**
+     * Stores the registry-wide instance of a type, such as a clock or physics
+     * settings, replacing any previous one. Resources live in a slot per type and
+     * are not entities, so they never show up in views.
+     */
+    public final <T> T putResource(final Class<T> type, final T resource) {
+        if (resource == null) {
+            throw new NullPointerException("resource");
+        }
+
+        int index = ResourceType.index(type);
+
+        if (index >= resources.length) {
+            resources = Arrays.copyOf(resources, Math.max(index + 1, (resources.length * 3) / 2 + 1));
+        }
+
+        @SuppressWarnings("unchecked")
+        T previous = (T) resources[index];
+        resources[index] = resource;
+        return previous;
+    }
+
+    @SuppressWarnings("unchecked")
+    public final <T> T putResource(final T resource) {
+        return putResource((Class<T>) resource.getClass(), resource);
+    }
+
+    public final <T> T resource(final Class<T> type) {
+        T resource = getResource(type);
+
+        if (resource == null) {
+            throw new IllegalStateException("No resource of type " + type.getSimpleName());
+        }
+
+        return resource;
+    }
+
+    @SuppressWarnings("unchecked")
+    public final <T> T getResource(final Class<T> type) {
+        int index = ResourceType.index(type);
+        return index < resources.length ? (T) resources[index] : null;
+    }
+
+    public final boolean hasResource(final Class<?> type) {
+        return getResource(type) != null;
+    }
+
+    public final <T> T removeResource(final Class<T> type) {
+        T resource = getResource(type);
+
+        if (resource != null) {
+            resources[ResourceType.index(type)] = null;
+        }
+
+        return resource;
+    }
+
+    public final <T extends Component> void registerCodec(final Class<T> type, final Codec<T> codec) {
+        codecs.put(type, codec);
+    }
+
+    public final <T extends Component> void registerCodec(final Class<T> type) {
+        codecs.put(type, Codec.of(type));
+    }
+
+    @SuppressWarnings("unchecked")
+    public final <T extends Component> Codec<T> getCodec(final Class<T> type) {
+        return (Codec<T>) codecs.get(type);
+    }
+
+    final Codec<?> findCodec(final Class<?> type) {
+        return codecs.get(type);
+    }
+
+    final Codec<?> codec(final Class<?> type) {
+        Codec<?> codec = codecs.get(type);
+
+        if (codec == null) {
+            throw new IllegalStateException("No codec registered for " + type.getName());
+        }
+
+        return codec;
+    }
+
+    /**
+     * Writes every entity with its components and flags to a binary snapshot. Each
+     * component type needs a codec registered through {@link #registerCodec}. An
+     * existing file is only replaced once the new snapshot is complete.
+     */
+    public final void save(final Path path) throws IOException {
+        save(path, false);
+    }
+
+    public final void save(final Path path, final boolean systems) throws IOException {
+        if (updating) {
+            throw new IllegalStateException("Cannot save while updating");
+        }
+
+        Snapshots.save(this, path, systems);
+    }
+
+    /**
+     * Adds the entities of a snapshot to this registry, one batch per archetype,
+     * and restores the state of bound persistent systems if the snapshot has it.
+     */
+    public final void load(final Path path) throws IOException {
+        if (updating) {
+            throw new IllegalStateException("Cannot load while updating");
+        }
+
+        Snapshots.load(this, path);
+    }
+
+    /**
+     * Starts or stops recording changes for {@link #writeDelta}. Value changes are
+     * only seen when reported through {@link #changed} or {@link #patch}.
+     */
+    public final void trackChanges(final boolean track) {
+        if (track && changes == null) {
+            // whatever the registry holds already was never recorded
+            changesSince = entities.isEmpty() ? sequence : sequence + 1;
+        }
+
+        changes = track ? (changes != null ? changes : new ChangeLog()) : null;
+    }
+
+    public final boolean isTrackingChanges() {
+        return changes != null;
+    }
+
+    /**
+     * Starts or stops recycling destroyed entities and their components. Entities
+     * released from the registry are never pooled.
+     */
+    public final void usePooling(final boolean pooling) {
+        if (!pooling && pool != null) {
+            pool.clear();
+        }
+
+        pool = pooling ? (pool != null ? pool : new Pool()) : null;
+    }
+
+    public final boolean isPooling() {
+        return pool != null;
+    }
+
+    // null unless pooling
+    public final Pool getPool() {
+        return pool;
+    }
+
+    /**
+     * Simulation tick, the number of completed updates unless a {@link Rollback}
+     * moved it back.
+     */
+    public final long getTick() {
+        return tick;
+    }
+
+    /**
+     * Number of completed updates. Unlike the tick it never goes back, and changes
+     * made from now on belong to this sequence number.
+     */
+    public final long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Encodes the entities created and destroyed and the components changed since
+     * the given sequence number into a buffer ready to be read, for
+     * {@link Replica#apply}. When the changes since then are no longer all in the
+     * log, because they were trimmed or made before tracking started, the delta
+     * holds the whole registry instead and replaces the replica's contents.
+     */
+    public final ByteBuffer writeDelta(final long since) {
+        Snapshots.Output out = new Snapshots.Output(null, ByteBuffer.allocate(DEFAULT_INITIAL_CAPACITY * 64));
+        writeDelta(since, out);
+        return out.buffer().flip();
+    }
+
+    public final void writeDelta(final long since, final WritableByteChannel channel) throws IOException {
+        Snapshots.Output out = new Snapshots.Output(channel);
+
+        try {
+            writeDelta(since, out);
+            out.flush();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Forgets the changes made before the given sequence number once every reader has
+     * written its deltas past it.
+     */
+    public final void trimChanges(final long before) {
+        changeLog().trim(before);
+        changesSince = Math.max(changesSince, before);
+    }
+
+    private void writeDelta(final long since, final Snapshots.Output out) {
+        ChangeLog log = changeLog();
+
+        if (since < changesSince) {
+            Deltas.writeFull(this, sequence, out);
+        } else {
+            Deltas.write(this, log, since, sequence, out);
+        }
+    }
+
+    final void attach(final Journal journal) {
+        if (this.journal != null) {
+            throw new IllegalStateException("Registry already has a journal");
+        }
+
+        this.journal = journal;
+    }
+
+    final void detach(final Journal journal) {
+        if (this.journal == journal) {
+            this.journal = null;
+        }
+    }
+
+    final void setTick(final long tick) {
+        this.tick = tick;
+    }
+
+    final void setSequence(final long sequence) {
+        this.sequence = sequence;
+    }
+
+    final ChangeLog changeLog() {
+        if (changes == null) {
+            throw new IllegalStateException("Changes are not being tracked");
+        }
+
+        return changes;
+    }
+
+    private void record(final byte kind, final Entity entity, final int type) {
+        entity.version = ++versions;
+
+        if (changes != null) {
+            changes.record(sequence, kind, entity, type);
+        }
+    }
+
     public final void bind(final EntitySystem system) {
         if (updating) {
             throw new IllegalStateException("Cannot bind systems while updating");
@@ -380,6 +1395,12 @@ public final class Registry implements Iterable<Entity> {
         if (listeners == null) {
             listeners = new ArrayList<EntityListener>();
             filteredListeners.put(family, listeners);
+
+            for (var archetype : archetypes.values()) {
+                if (archetype.accepts(family)) {
+                    archetype.listeners.add(listeners);
+                }
+            }
         }
         if (listeners.contains(listener)) {
             return;
@@ -411,55 +1432,461 @@ public final class Registry implements Iterable<Entity> {
     }
 
     public final View view(final Family family) {
-        List<Entity> list = views.get(family);
+        return new View(family, group(family));
+    }
 
-        if (list == null) {
-            list = new ArrayList<Entity>();
-            
-            for (var entity : entities) {
-                if (family.isMember(entity)) {
-                    list.add(entity);
+    private EntitySet createView(final Family family) {
+        EntitySet list = new EntitySet();
+
+        for (var entity : entities) {
+            if (entity.archetype.accepts(family)) {
+                list.insert(entity);
+            }
+        }
+
+        for (var archetype : archetypes.values()) {
+            if (archetype.accepts(family)) {
+                archetype.views.add(list);
+            }
+        }
+
+        views.put(family, list);
+        return list;
+    }
+
+    private int acquireId() {
+        return freeCount > 0 ? freeIds[--freeCount] : nextId++;
+    }
+
+    private void releaseId(final Entity entity) {
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, (freeIds.length * 3) / 2 + 1);
+        }
+
+        freeIds[freeCount++] = entity.id;
+        entity.id = -1;
+    }
+
+    private Archetype archetypeOf(final Entity entity) {
+        Archetype archetype = archetypes.get(entity.signature());
+
+        if (archetype == null) {
+            archetype = new Archetype(entity);
+
+            for (var entry : views.entrySet()) {
+                if (archetype.accepts(entry.getKey())) {
+                    archetype.views.add(entry.getValue());
                 }
             }
-            
-            views.put(family, list);
+
+            for (var entry : filteredListeners.entrySet()) {
+                if (archetype.accepts(entry.getKey())) {
+                    archetype.listeners.add(entry.getValue());
+                }
+            }
+
+            for (var group : owners.values()) {
+                if (!archetype.groups.contains(group) && archetype.accepts(group.getFamily())) {
+                    archetype.groups.add(group);
+                }
+            }
+
+            archetypes.put(archetype.signature, archetype);
         }
 
-        return new View(family, list);
+        return archetype;
     }
 
-    @SafeVarargs
-    public final View view(final Class<? extends Component>... components) {
+    public final View view(final Class<?>... components) {
         return view(Family.define(components));
     }
 
-    public final List<Entity> group(final Family family) {
-        List<Entity> list = views.get(family);
+    public final EntitySet group(final Family family) {
+        EntitySet list = views.get(family);
 
         if (list == null) {
-            list = new ArrayList<Entity>();
-            
-            for (var entity : entities) {
-                if (family.isMember(entity)) {
-                    list.add(entity);
-                }
-            }
-            
-            views.put(family, list);
+            viewMisses++;
+            list = createView(family);
+        } else {
+            viewHits++;
         }
 
         return list;
     }
 
-    @SafeVarargs
-    public final List<Entity> group(final Class<? extends Component>... components) {
+    /**
+     * Resolves the family once and returns a handle that can be kept and iterated
+     * every frame without further lookups. Compiling the same family twice returns
+     * the same query.
+     */
+    public final Query compile(final Family family) {
+        Query query = queries.get(family);
+
+        if (query == null) {
+            query = new Query(family, group(family));
+            queries.put(family, query);
+        }
+
+        return query;
+    }
+
+    public final Query compile(final Class<?>... components) {
+        return compile(Family.define(components));
+    }
+
+    public final int getViewCount() {
+        return views.size();
+    }
+
+    public final long getViewHits() {
+        return viewHits;
+    }
+
+    public final long getViewMisses() {
+        return viewMisses;
+    }
+
+    public final double getViewHitRate() {
+        long lookups = viewHits + viewMisses;
+        return lookups == 0L ? 0.0 : (double) viewHits / lookups;
+    }
+
+    // approximate bytes held by the cached views
+    public final long getViewMemory() {
+        long bytes = 0L;
+
+        for (var view : views.values()) {
+            bytes += view.footprint();
+        }
+
+        return bytes;
+    }
+
+    public final EntitySet group(final Class<?>... components) {
         return group(Family.define(components));
     }
 
+    public final OwningGroup createGroup(final Family family) {
+        if (updating) {
+            throw new IllegalStateException("Cannot create groups while updating");
+        }
+
+        for (var type : family) {
+            if (!Component.class.isAssignableFrom(type)) {
+                throw new IllegalArgumentException("Groups can only own component types");
+            }
+            if (owners.containsKey(type)) {
+                throw new IllegalArgumentException("Component type " + type.getSimpleName() + " is already owned by another group");
+            }
+        }
+
+        OwningGroup group = new OwningGroup(family);
+
+        for (var type : family) {
+            owners.put(type, group);
+        }
+
+        for (var entity : entities) {
+            if (entity.archetype.accepts(family)) {
+                group.insert(entity);
+            }
+        }
+
+        for (var archetype : archetypes.values()) {
+            if (archetype.accepts(family)) {
+                archetype.groups.add(group);
+            }
+        }
+
+        return group;
+    }
+
+    @SafeVarargs
+    public final OwningGroup createGroup(final Class<? extends Component>... components) {
+        return createGroup(Family.define(components));
+    }
+
+    public final void destroyGroup(final OwningGroup group) {
+        if (updating) {
+            throw new IllegalStateException("Cannot destroy groups while updating");
+        }
+        if (!owners.containsValue(group)) {
+            throw new IllegalArgumentException("Group not created by this registry");
+        }
+
+        owners.values().removeIf(g -> g == group);
+
+        for (var archetype : archetypes.values()) {
+            archetype.groups.remove(group);
+        }
+
+        group.clear();
+    }
+
+    public final OwningGroup getGroup(final Class<? extends Component> type) {
+        return owners.get(type);
+    }
+
+    public final <T extends Component> SpatialIndex<T> createSpatialIndex(final Class<T> type, final float cellSize, final ToFloatFunction<? super T> x, final ToFloatFunction<? super T> y) {
+        return createSpatialIndex(type, new SpatialIndex<T>(type, cellSize, x, y, null));
+    }
+
+    public final <T extends Component> SpatialIndex<T> createSpatialIndex(final Class<T> type, final float cellSize, final ToFloatFunction<? super T> x, final ToFloatFunction<? super T> y, final ToFloatFunction<? super T> z) {
+        if (z == null) {
+            throw new NullPointerException("z");
+        }
+
+        return createSpatialIndex(type, new SpatialIndex<T>(type, cellSize, x, y, z));
+    }
+
+    private <T extends Component> SpatialIndex<T> createSpatialIndex(final Class<T> type, final SpatialIndex<T> index) {
+        if (updating) {
+            throw new IllegalStateException("Cannot create spatial indices while updating");
+        }
+        if (getSpatialIndex(type) != null) {
+            throw new IllegalArgumentException("Component type " + type.getSimpleName() + " is already spatially indexed");
+        }
+
+        Family family = Family.define(type);
+
+        for (var entity : entities) {
+            if (entity.archetype.accepts(family)) {
+                index.onEntityAdd(entity);
+            }
+        }
+
+        register(index, family);
+        spatialIndices.add(index);
+        return index;
+    }
+
+    public final void destroySpatialIndex(final SpatialIndex<?> index) {
+        if (spatialIndices.remove(index)) {
+            unregister(index, Family.define(index.getType()));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public final <T extends Component> SpatialIndex<T> getSpatialIndex(final Class<T> type) {
+        for (var index : spatialIndices) {
+            if (index.getType() == type) {
+                return (SpatialIndex<T>) index;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Publishes copies of the given component types after every update, for other
+     * threads to read through {@link Mirror#acquire}. The first frame holds the
+     * current state.
+     */
+    @SafeVarargs
+    public final Mirror createMirror(final Class<? extends Component>... types) {
+        if (updating) {
+            throw new IllegalStateException("Cannot create mirrors while updating");
+        }
+        if (types.length == 0) {
+            throw new IllegalArgumentException("No component types to mirror");
+        }
+
+        for (var type : types) {
+            if (ComponentType.isTag(type)) {
+                throw new IllegalArgumentException("Tag " + type.getSimpleName() + " has no state to mirror");
+            }
+
+            ComponentCopier.of(type).check();
+        }
+
+        // a reifiable copy, the varargs array itself is not passed on
+        Class<?>[] classes = new Class<?>[types.length];
+
+        for (int i = 0; i < types.length; i++) {
+            classes[i] = types[i];
+        }
+
+        Mirror mirror = new Mirror(classes, group(Family.define(classes)));
+        mirror.publish(tick);
+        mirrors.add(mirror);
+        return mirror;
+    }
+
+    public final void destroyMirror(final Mirror mirror) {
+        mirrors.remove(mirror);
+    }
+
+    /**
+     * Flags an entity whose indexed position changed. Spatial indices pick the new
+     * position up in one batch after the current update, or before the next query.
+     */
+    public final void moved(final Entity entity) {
+        for (var index : spatialIndices) {
+            index.markMoved(entity);
+        }
+    }
+
+    public final <T extends Component, K> ComponentIndex<T, K> index(final Class<T> type, final Function<? super T, ? extends K> key) {
+        return createIndex(new ComponentIndex<T, K>(type, key, false));
+    }
+
+    public final <T extends Component, K> ComponentIndex<T, K> uniqueIndex(final Class<T> type, final Function<? super T, ? extends K> key) {
+        return createIndex(new ComponentIndex<T, K>(type, key, true));
+    }
+
+    private <T extends Component, K> ComponentIndex<T, K> createIndex(final ComponentIndex<T, K> index) {
+        if (updating) {
+            throw new IllegalStateException("Cannot create indices while updating");
+        }
+
+        Family family = Family.define(index.getType());
+
+        for (var entity : entities) {
+            if (entity.archetype.accepts(family)) {
+                index.onEntityAdd(entity);
+            }
+        }
+
+        register(index, family);
+        componentIndices.add(index);
+        return index;
+    }
+
+    // component indices stop checking and following changes until rebuilt, for a
+    // rollback whose entities may hold each other's keys while half restored
+    final void suspendIndices() {
+        for (var index : componentIndices) {
+            index.suspend();
+        }
+    }
+
+    final void rebuildIndices() {
+        for (var index : componentIndices) {
+            index.rebuild(entities);
+        }
+    }
+
+    public final void destroyIndex(final ComponentIndex<?, ?> index) {
+        if (componentIndices.remove(index)) {
+            unregister(index, Family.define(index.getType()));
+        }
+    }
+
+    /**
+     * Reports that a component of the entity changed in place. Component indices
+     * re-key the entity at once and a spatial index over the type re-buckets it with
+     * its next flush. A duplicate key in a unique index is thrown with the entity
+     * still filed under its old key, the component must be changed back.
+     */
+    public final void changed(final Entity entity, final Class<? extends Component> type) {
+        if (entity.getRegistry() != this) {
+            throw new IllegalArgumentException("Entity does not belong to this registry");
+        }
+
+        Component component = entity.get(type);
+
+        if (component != null) {
+            record(ChangeLog.CHANGE, entity, ComponentType.index(component.getClass()));
+        }
+
+        for (var index : componentIndices) {
+            if (index.getType().isAssignableFrom(type)) {
+                index.update(entity);
+            }
+        }
+
+        for (var index : spatialIndices) {
+            if (index.getType().isAssignableFrom(type)) {
+                index.markMoved(entity);
+            }
+        }
+    }
+
+    /**
+     * Applies the patcher to the entity's component and reports the change. When a
+     * unique index rejects the new key the component gets its old value back before
+     * the exception is thrown, provided {@link Prefab} could copy the type; otherwise
+     * it must be changed back as after {@link #changed}.
+     */
+    public final <T extends Component> T patch(final Entity entity, final Class<T> type, final Consumer<? super T> patcher) {
+        T component = entity.get(type);
+
+        if (component == null) {
+            throw new IllegalArgumentException("Entity has no " + type.getSimpleName());
+        }
+
+        // a unique index rejects a duplicate key only after the patch, so keep the old value to put back
+        ComponentCopier copier = ComponentCopier.of(component.getClass());
+        Component saved = null;
+
+        for (var index : componentIndices) {
+            if (index.isUnique() && index.getType().isAssignableFrom(type) && copier.canCopy()) {
+                saved = copier.copyOf(component);
+                break;
+            }
+        }
+
+        patcher.accept(component);
+
+        try {
+            changed(entity, type);
+        } catch (IllegalArgumentException e) {
+            if (saved == null) {
+                throw e;
+            }
+
+            // re-keys any index the patched value already reached
+            copier.copyInto(component, saved);
+            changed(entity, type);
+            throw e;
+        }
+
+        return component;
+    }
+
+    public final int query(final Family family, final Region region, final Consumer<Entity> action) {
+        return spatialIndexFor(family).query(region, family, action);
+    }
+
+    public final List<Entity> query(final Family family, final Region region) {
+        List<Entity> result = new ArrayList<Entity>();
+        query(family, region, result::add);
+        return result;
+    }
+
+    public final int nearest(final Family family, final float x, final float y, final float z, final int k, final Entity[] out) {
+        return spatialIndexFor(family).nearest(x, y, z, k, family, out);
+    }
+
+    public final List<Entity> nearest(final Family family, final float x, final float y, final float z, final int k) {
+        Entity[] out = new Entity[k];
+        int count = nearest(family, x, y, z, k, out);
+        return Arrays.asList(out).subList(0, count);
+    }
+
+    // the index over one of the family's types, or the only index there is
+    private SpatialIndex<?> spatialIndexFor(final Family family) {
+        for (var index : spatialIndices) {
+            if (family.has(index.getType())) {
+                return index;
+            }
+        }
+
+        if (spatialIndices.size() == 1) {
+            return spatialIndices.get(0);
+        }
+
+        throw new IllegalArgumentException("No spatial index covers " + family);
+    }
+
     public int size() {
         return entities.size();
     }
     
+    public boolean isUpdating() {
+        return updating;
+    }
+
     public int systemCount() {
         return systems.size();
     }
@@ -0,0 +1,33 @@
+package com.temprovich.inferno;
+
+import java.util.function.BiPredicate;
+
+import com.temprovich.inferno.util.ToFloatFunction;
+
+/**
+ * How much an entity matters to an observer. Positive scores are relevant and
+ * accumulate as send priority; zero, negative and NaN scores are not relevant.
+ */
+@FunctionalInterface
+public interface Relevance {
+
+    public abstract float score(Entity observer, Entity entity);
+
+    public static Relevance of(final BiPredicate<Entity, Entity> predicate) {
+        return (observer, entity) -> predicate.test(observer, entity) ? 1f : 0f;
+    }
+
+    /**
+     * Relevant within the radius on the xy plane, nearer entities scoring higher.
+     */
+    public static Relevance distance(final ToFloatFunction<Entity> x, final ToFloatFunction<Entity> y, final float radius) {
+        final float radiusSquared = radius * radius;
+
+        return (observer, entity) -> {
+            float dx = x.applyAsFloat(entity) - x.applyAsFloat(observer);
+            float dy = y.applyAsFloat(entity) - y.applyAsFloat(observer);
+            float d = dx * dx + dy * dy;
+            return d > radiusSquared ? 0f : 1f - d / radiusSquared + Float.MIN_NORMAL;
+        };
+    }
+}
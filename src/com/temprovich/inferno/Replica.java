@@ -0,0 +1,139 @@
+package com.temprovich.inferno;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Follows another registry by applying the deltas it writes through
+ * {@link Registry#writeDelta}. The replica remembers which of its entities stands
+ * for each entity id of the source; the target registry needs codecs for the same
+ * component types as the source.
+ */
+public final class Replica {
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    private final Registry target;
+
+    // target entities by source id
+    private Entity[] entities;
+    private long sequence;
+    private long tick;
+
+    public Replica(Registry target) {
+        this.target = target;
+        this.entities = new Entity[DEFAULT_INITIAL_CAPACITY];
+        this.sequence = 0L;
+        this.tick = 0L;
+    }
+
+    /**
+     * Applies every delta left in the buffer and returns the source sequence number
+     * the replica is now up to date with, the one to write the next delta since.
+     */
+    public long apply(final ByteBuffer in) {
+        in.order(ByteOrder.LITTLE_ENDIAN);
+
+        while (in.hasRemaining()) {
+            sequence = Deltas.read(this, in);
+        }
+
+        return sequence;
+    }
+
+    public long apply(final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return apply(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public Entity getEntity(final int sourceId) {
+        return sourceId < entities.length ? entities[sourceId] : null;
+    }
+
+    public Registry getTarget() {
+        return target;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    // the source's simulation tick as of the last delta
+    public long getTick() {
+        return tick;
+    }
+
+    void setTick(final long tick) {
+        this.tick = tick;
+    }
+
+    void create(final int id, final Entity entity) {
+        if (id >= entities.length) {
+            entities = Arrays.copyOf(entities, Math.max(id + 1, (entities.length * 3) / 2 + 1));
+        }
+
+        entities[id] = entity;
+        target.add(entity);
+    }
+
+    // destroys every entity the replica created
+    void clear() {
+        for (int id = 0; id < entities.length; id++) {
+            if (entities[id] != null) {
+                destroy(id);
+            }
+        }
+    }
+
+    void destroy(final int id) {
+        Entity entity = get(id);
+        entities[id] = null;
+        target.destroy(entity);
+    }
+
+    Entity get(final int id) {
+        Entity entity = getEntity(id);
+
+        if (entity == null) {
+            throw new IllegalStateException("Delta refers to unknown entity " + id);
+        }
+
+        return entity;
+    }
+
+    static void retag(final Entity entity, final BitSet tags) {
+        BitSet signature = entity.signature();
+
+        for (int bit = signature.nextSetBit(0); bit >= 0; bit = signature.nextSetBit(bit + 1)) {
+            Class<?> type = ComponentType.type(bit);
+
+            if (ComponentType.isTag(type) && !tags.get(bit)) {
+                entity.untag(type.asSubclass(Tag.class));
+            }
+        }
+
+        for (int bit = tags.nextSetBit(0); bit >= 0; bit = tags.nextSetBit(bit + 1)) {
+            if (!signature.get(bit)) {
+                entity.tag(ComponentType.type(bit).asSubclass(Tag.class));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    void update(final Entity entity, final Class<?> type, final ByteBuffer in) {
+        Class<? extends Component> componentType = type.asSubclass(Component.class);
+        ((Codec<Component>) target.codec(type)).read(in, entity.get(componentType));
+        target.changed(entity, componentType);
+    }
+
+    Codec<?> codec(final Class<?> type) {
+        return target.codec(type);
+    }
+}
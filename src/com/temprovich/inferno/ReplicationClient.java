@@ -0,0 +1,190 @@
+package com.temprovich.inferno;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Applies the messages a {@link Replicator} writes for one observer to a registry.
+ * The client remembers which of its entities stands for each entity id of the
+ * server; the target registry needs codecs for the replicated component types.
+ */
+public final class ReplicationClient {
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    private final Registry target;
+
+    // target entities by server id
+    private Entity[] entities;
+    // local types by server type index
+    private Class<?>[] types;
+    private long tick;
+
+    // per record scratch
+    private final BitSet tags;
+    private final BitSet listed;
+
+    public ReplicationClient(Registry target) {
+        this.target = target;
+        this.entities = new Entity[DEFAULT_INITIAL_CAPACITY];
+        this.types = new Class<?>[DEFAULT_INITIAL_CAPACITY];
+        this.tick = -1L;
+        this.tags = new BitSet();
+        this.listed = new BitSet();
+    }
+
+    /**
+     * Applies one message and returns the server tick it was written in.
+     */
+    public long apply(final ByteBuffer in) {
+        in.order(ByteOrder.LITTLE_ENDIAN);
+        tick = in.getLong();
+
+        while (in.hasRemaining()) {
+            byte kind = in.get();
+
+            switch (kind) {
+                case Replicator.TYPE:
+                    type(in.getInt(), Snapshots.resolve(ReflectiveCodec.readString(in)));
+                    break;
+                case Replicator.ENTER:
+                    enter(in);
+                    break;
+                case Replicator.UPDATE:
+                    update(in);
+                    break;
+                case Replicator.LEAVE:
+                    leave(in.getInt());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown replication record " + kind);
+            }
+        }
+
+        return tick;
+    }
+
+    public Entity getEntity(final int serverId) {
+        return serverId >= 0 && serverId < entities.length ? entities[serverId] : null;
+    }
+
+    public Registry getTarget() {
+        return target;
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    private void type(final int index, final Class<?> type) {
+        if (index >= types.length) {
+            types = Arrays.copyOf(types, Math.max(index + 1, (types.length * 3) / 2 + 1));
+        }
+
+        types[index] = type;
+    }
+
+    private void enter(final ByteBuffer in) {
+        int id = in.getInt();
+        int flags = in.getInt();
+        int k = in.getInt();
+        int typesAt = in.position();
+        in.position(typesAt + k * Integer.BYTES);
+
+        if (getEntity(id) != null) {
+            leave(id);
+        }
+
+        Entity entity = new Entity(k);
+        entity.flags = flags;
+
+        for (int t = 0; t < k; t++) {
+            Class<?> type = type(in.getInt(typesAt + t * Integer.BYTES));
+
+            if (ComponentType.isTag(type)) {
+                entity.signature().set(ComponentType.index(type));
+            } else {
+                entity.attach((Component) target.codec(type).read(in));
+            }
+        }
+
+        if (id >= entities.length) {
+            entities = Arrays.copyOf(entities, Math.max(id + 1, (entities.length * 3) / 2 + 1));
+        }
+
+        entities[id] = entity;
+        target.add(entity);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void update(final ByteBuffer in) {
+        int id = in.getInt();
+        Entity entity = getEntity(id);
+
+        if (entity == null) {
+            throw new IllegalStateException("Update for unknown entity " + id);
+        }
+
+        int flags = in.getInt();
+        int k = in.getInt();
+        int typesAt = in.position();
+        in.position(typesAt + k * Integer.BYTES);
+        tags.clear();
+        listed.clear();
+
+        for (int t = 0; t < k; t++) {
+            Class<?> type = type(in.getInt(typesAt + t * Integer.BYTES));
+
+            if (ComponentType.isTag(type)) {
+                tags.set(ComponentType.index(type));
+                continue;
+            }
+
+            Class<? extends Component> componentType = type.asSubclass(Component.class);
+            Component component = entity.get(componentType);
+            listed.set(ComponentType.index(type));
+
+            if (component == null) {
+                entity.add((Component) target.codec(type).read(in));
+            } else {
+                ((Codec<Component>) target.codec(type)).read(in, component);
+                target.changed(entity, componentType);
+            }
+        }
+
+        // components the server no longer has
+        for (int c = entity.getComponents().size() - 1; c >= 0; c--) {
+            Component component = entity.getComponents().get(c);
+
+            if (!listed.get(ComponentType.index(component.getClass()))) {
+                entity.remove(component);
+            }
+        }
+
+        entity.setFlags(flags);
+        Replica.retag(entity, tags);
+    }
+
+    private void leave(final int id) {
+        Entity entity = getEntity(id);
+
+        if (entity == null) {
+            return;
+        }
+
+        entities[id] = null;
+        target.destroy(entity);
+    }
+
+    private Class<?> type(final int index) {
+        Class<?> type = index < types.length ? types[index] : null;
+
+        if (type == null) {
+            throw new IllegalStateException("Unannounced type " + index);
+        }
+
+        return type;
+    }
+}
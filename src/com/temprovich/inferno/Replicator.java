@@ -0,0 +1,586 @@
+package com.temprovich.inferno;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.temprovich.inferno.system.AbstractEntitySystem;
+
+/**
+ * Interest managed replication of a family to a set of observers. Every update
+ * each observer gets one message in its own reusable buffer: the entities that
+ * stopped being relevant leave, then the relevant entities enter or update in the
+ * order of their accumulated priority until the observer's byte budget is spent.
+ * Entities that did not fit keep their priority and are likely to go out with the
+ * next message. {@link ReplicationClient} applies the messages to a registry.
+ * <p>
+ * A known entity is only sent again once it changed: every change the registry
+ * records stamps the entity, and an observer compares the stamp with the one it
+ * sent last. Value changes are therefore only seen when reported through
+ * {@link Registry#changed} or {@link Registry#patch}.
+ * <p>
+ * Relevance is re-evaluated over the whole family only every refresh interval,
+ * staggered across observers; in between only the entities an observer already
+ * knows are scored again. Given a pool, observers are processed in parallel, so
+ * the relevance function must be safe to call concurrently.
+ * <p>
+ * Components are sent with the codecs registered on the registry; components
+ * without a codec stay on the server.
+ *
+ * <pre>
+ * long tick, then records:
+ * TYPE   byte, int type, string name
+ * ENTER  byte, int id, int flags, int k, k * int type, components
+ * UPDATE byte, int id, int flags, int k, k * int type, components
+ * LEAVE  byte, int id
+ * </pre>
+ */
+public final class Replicator extends AbstractEntitySystem implements EntityListener {
+
+    static final byte TYPE = 0;
+    static final byte ENTER = 1;
+    static final byte UPDATE = 2;
+    static final byte LEAVE = 3;
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private static final int LEAVE_BYTES = 1 + Integer.BYTES;
+
+    private final Family family;
+    private final Relevance relevance;
+    private final List<Observer> observers;
+
+    // family members by entity id
+    private Entity[] entities;
+    private EntitySet members;
+
+    private int refreshInterval;
+    private ForkJoinPool pool;
+    private long tick;
+
+    public Replicator(Family family, Relevance relevance) {
+        this(family, relevance, 0);
+    }
+
+    public Replicator(Family family, Relevance relevance, int priority) {
+        super(priority);
+        this.family = family;
+        this.relevance = relevance;
+        this.observers = new ArrayList<Observer>();
+        this.entities = new Entity[DEFAULT_INITIAL_CAPACITY];
+        this.members = EntitySet.EMPTY;
+        this.refreshInterval = 1;
+        this.pool = null;
+        this.tick = 0L;
+    }
+
+    public Observer addObserver(Entity entity, int budget) {
+        Observer observer = new Observer(entity, budget, observers.size());
+        observers.add(observer);
+        return observer;
+    }
+
+    public void removeObserver(Observer observer) {
+        observers.remove(observer);
+    }
+
+    public List<Observer> getObservers() {
+        return Collections.unmodifiableList(observers);
+    }
+
+    @Override
+    public void update(float dt) {
+        if (pool != null && observers.size() > 1) {
+            pool.invoke(new ObserverTask(0, observers.size()));
+        } else {
+            for (var observer : observers) {
+                observer.replicate();
+            }
+        }
+
+        tick++;
+    }
+
+    @Override
+    public void onBind(Registry registry) {
+        members = registry.group(family);
+
+        for (var entity : members) {
+            onEntityAdd(entity);
+        }
+
+        registry.register(this, family);
+    }
+
+    @Override
+    public void onUnbind(Registry registry) {
+        registry.unregister(this, family);
+        members = EntitySet.EMPTY;
+        Arrays.fill(entities, null);
+    }
+
+    @Override
+    public void onEntityAdd(Entity entity) {
+        int id = entity.id;
+
+        if (id >= entities.length) {
+            entities = Arrays.copyOf(entities, Math.max(id + 1, (entities.length * 3) / 2 + 1));
+        }
+
+        entities[id] = entity;
+    }
+
+    @Override
+    public void onEntityRemove(Entity entity) {
+        int id = entity.id;
+
+        if (id < 0 || id >= entities.length || entities[id] != entity) {
+            return;
+        }
+
+        entities[id] = null;
+
+        for (var observer : observers) {
+            observer.forget(id);
+        }
+    }
+
+    /**
+     * Re-evaluates every member's relevance to an observer only every given number
+     * of updates; the observers take turns so the cost is spread out.
+     */
+    public void setRefreshInterval(int refreshInterval) {
+        if (refreshInterval <= 0) {
+            throw new IllegalArgumentException("Refresh interval must be positive: " + refreshInterval);
+        }
+
+        this.refreshInterval = refreshInterval;
+    }
+
+    public int getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public Family getFamily() {
+        return family;
+    }
+
+    public Relevance getRelevance() {
+        return relevance;
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * One observer's view of the family and its outgoing message.
+     */
+    public final class Observer {
+
+        private final Entity entity;
+        private final int index;
+        private int budget;
+        private ByteBuffer buffer;
+
+        // by entity id
+        private boolean[] known;
+        private int[] positions;
+        private float[] priorities;
+        private long[] seen;
+        // Entity.version as last sent
+        private long[] sent;
+
+        private int[] knownIds;
+        private int knownCount;
+        private int[] leaves;
+        private int leaveCount;
+        private long[] candidates;
+        private int candidateCount;
+        private long stamp;
+
+        // types whose names were sent already
+        private final BitSet announced;
+
+        // the components of the entity being written that have a codec
+        private Component[] components;
+        private Codec<?>[] codecs;
+        private int[] types;
+        private int componentCount;
+
+        private int entered;
+        private int updated;
+        private int left;
+
+        Observer(Entity entity, int budget, int index) {
+            this.entity = entity;
+            this.index = index;
+            this.known = new boolean[DEFAULT_INITIAL_CAPACITY];
+            this.positions = new int[DEFAULT_INITIAL_CAPACITY];
+            this.priorities = new float[DEFAULT_INITIAL_CAPACITY];
+            this.seen = new long[DEFAULT_INITIAL_CAPACITY];
+            this.sent = new long[DEFAULT_INITIAL_CAPACITY];
+            this.components = new Component[DEFAULT_INITIAL_CAPACITY];
+            this.codecs = new Codec<?>[DEFAULT_INITIAL_CAPACITY];
+            this.types = new int[DEFAULT_INITIAL_CAPACITY];
+            this.knownIds = new int[DEFAULT_INITIAL_CAPACITY];
+            this.knownCount = 0;
+            this.leaves = new int[DEFAULT_INITIAL_CAPACITY];
+            this.leaveCount = 0;
+            this.candidates = new long[DEFAULT_INITIAL_CAPACITY];
+            this.candidateCount = 0;
+            this.stamp = 0L;
+            this.announced = new BitSet();
+            setBudget(budget);
+        }
+
+        /**
+         * The latest message, ready to be read.
+         */
+        public ByteBuffer getBuffer() {
+            return buffer;
+        }
+
+        public Entity getEntity() {
+            return entity;
+        }
+
+        public int getBudget() {
+            return budget;
+        }
+
+        public void setBudget(int budget) {
+            if (budget < Long.BYTES) {
+                throw new IllegalArgumentException("Budget too small: " + budget);
+            }
+
+            this.budget = budget;
+
+            if (buffer == null || buffer.capacity() < budget) {
+                buffer = ByteBuffer.allocateDirect(budget).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.flip();
+            }
+        }
+
+        public boolean knows(Entity e) {
+            return e.id >= 0 && e.id < known.length && known[e.id] && entities[e.id] == e;
+        }
+
+        public int knownCount() {
+            return knownCount;
+        }
+
+        public int getEntered() {
+            return entered;
+        }
+
+        public int getUpdated() {
+            return updated;
+        }
+
+        public int getLeft() {
+            return left;
+        }
+
+        void replicate() {
+            entered = 0;
+            updated = 0;
+            left = 0;
+            candidateCount = 0;
+
+            if (refreshInterval == 1 || (tick + index) % refreshInterval == 0) {
+                refresh();
+            } else {
+                rescore();
+            }
+
+            buffer.clear().limit(budget);
+            buffer.putLong(tick);
+            writeLeaves();
+
+            Arrays.sort(candidates, 0, candidateCount);
+
+            for (int c = candidateCount - 1; c >= 0; c--) {
+                if (!write((int) candidates[c])) {
+                    break;
+                }
+            }
+
+            buffer.flip();
+        }
+
+        private void refresh() {
+            stamp++;
+
+            for (int i = 0, n = members.size(); i < n; i++) {
+                Entity e = members.get(i);
+                float score = relevance.score(entity, e);
+
+                if (score > 0f) {
+                    ensureCapacity(e.id);
+                    seen[e.id] = stamp;
+
+                    if (!known[e.id] || sent[e.id] != e.version) {
+                        candidate(e.id, score);
+                    }
+                }
+            }
+
+            for (int k = knownCount - 1; k >= 0; k--) {
+                int id = knownIds[k];
+
+                if (seen[id] != stamp) {
+                    leave(id);
+                }
+            }
+        }
+
+        private void rescore() {
+            for (int k = knownCount - 1; k >= 0; k--) {
+                int id = knownIds[k];
+                Entity e = entities[id];
+                float score = relevance.score(entity, e);
+
+                if (score <= 0f) {
+                    leave(id);
+                } else if (sent[id] != e.version) {
+                    candidate(id, score);
+                }
+            }
+        }
+
+        private void candidate(int id, float score) {
+            priorities[id] += score;
+
+            if (candidateCount == candidates.length) {
+                candidates = Arrays.copyOf(candidates, (candidates.length * 3) / 2 + 1);
+            }
+
+            // positive floats order like their bits, so this sorts by priority
+            candidates[candidateCount++] = ((long) Float.floatToIntBits(priorities[id]) << 32) | id;
+        }
+
+        private void writeLeaves() {
+            int written = 0;
+
+            while (written < leaveCount && buffer.remaining() >= LEAVE_BYTES) {
+                buffer.put(LEAVE);
+                buffer.putInt(leaves[written++]);
+            }
+
+            System.arraycopy(leaves, written, leaves, 0, leaveCount - written);
+            leaveCount -= written;
+            left = written;
+        }
+
+        // writes an enter or update, or nothing if it does not fit
+        private boolean write(int id) {
+            Entity e = entities[id];
+            gather(e);
+
+            boolean written = put(e, !known[id]);
+
+            Arrays.fill(components, 0, componentCount, null);
+            return written;
+        }
+
+        // looks up the codec of every component once
+        private void gather(Entity e) {
+            componentCount = 0;
+
+            for (var component : e.getComponents()) {
+                Codec<?> codec = registry.findCodec(component.getClass());
+
+                if (codec == null) {
+                    continue;
+                }
+                if (componentCount == components.length) {
+                    int capacity = (components.length * 3) / 2 + 1;
+                    components = Arrays.copyOf(components, capacity);
+                    codecs = Arrays.copyOf(codecs, capacity);
+                    types = Arrays.copyOf(types, capacity);
+                }
+
+                components[componentCount] = component;
+                codecs[componentCount] = codec;
+                types[componentCount++] = ComponentType.index(component.getClass());
+            }
+        }
+
+        private boolean put(Entity e, boolean entering) {
+            int id = e.id;
+            int start = buffer.position();
+
+            try {
+                for (int c = 0; c < componentCount; c++) {
+                    announce(types[c], components[c].getClass());
+                }
+                for (var tag : e.archetype.tags) {
+                    announce(tag, ComponentType.type(tag));
+                }
+
+                buffer.put(entering ? ENTER : UPDATE);
+                buffer.putInt(id);
+                buffer.putInt(e.flags);
+                buffer.putInt(e.archetype.tags.length + componentCount);
+
+                for (var tag : e.archetype.tags) {
+                    buffer.putInt(tag);
+                }
+                for (int c = 0; c < componentCount; c++) {
+                    buffer.putInt(types[c]);
+                }
+
+                encode();
+            } catch (BufferOverflowException overflow) {
+                buffer.position(start);
+                return false;
+            }
+
+            for (int c = 0; c < componentCount; c++) {
+                announced.set(types[c]);
+            }
+            for (var tag : e.archetype.tags) {
+                announced.set(tag);
+            }
+
+            if (entering) {
+                known[id] = true;
+                positions[id] = knownCount;
+
+                if (knownCount == knownIds.length) {
+                    knownIds = Arrays.copyOf(knownIds, (knownIds.length * 3) / 2 + 1);
+                }
+
+                knownIds[knownCount++] = id;
+                entered++;
+                dropLeaves(id);
+            } else {
+                updated++;
+            }
+
+            priorities[id] = 0f;
+            sent[id] = e.version;
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void encode() {
+            for (int c = 0; c < componentCount; c++) {
+                ((Codec<Component>) codecs[c]).write(components[c], buffer);
+            }
+        }
+
+        private void announce(int type, Class<?> clazz) {
+            if (!announced.get(type)) {
+                buffer.put(TYPE);
+                buffer.putInt(type);
+                ReflectiveCodec.writeString(clazz.getName(), buffer);
+            }
+        }
+
+        private void leave(int id) {
+            forget(id);
+
+            if (leaveCount == leaves.length) {
+                leaves = Arrays.copyOf(leaves, (leaves.length * 3) / 2 + 1);
+            }
+
+            leaves[leaveCount++] = id;
+        }
+
+        // a leave still waiting for budget must not follow the enter of an entity
+        // reusing the id; the client replaces whatever the id stood for on enter
+        private void dropLeaves(int id) {
+            int kept = 0;
+
+            for (int l = 0; l < leaveCount; l++) {
+                if (leaves[l] != id) {
+                    leaves[kept++] = leaves[l];
+                }
+            }
+
+            leaveCount = kept;
+        }
+
+        // stops tracking an entity; called directly when it leaves the registry
+        void forget(int id) {
+            if (id >= known.length) {
+                return;
+            }
+
+            priorities[id] = 0f;
+
+            if (!known[id]) {
+                return;
+            }
+
+            known[id] = false;
+
+            int position = positions[id];
+            int last = knownIds[--knownCount];
+            knownIds[position] = last;
+            positions[last] = position;
+
+            if (entities[id] == null) {
+                // removed from the registry, the id may be reused right away
+                if (leaveCount == leaves.length) {
+                    leaves = Arrays.copyOf(leaves, (leaves.length * 3) / 2 + 1);
+                }
+
+                leaves[leaveCount++] = id;
+            }
+        }
+
+        private void ensureCapacity(int id) {
+            if (id < known.length) {
+                return;
+            }
+
+            int capacity = Math.max(id + 1, (known.length * 3) / 2 + 1);
+            known = Arrays.copyOf(known, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+            priorities = Arrays.copyOf(priorities, capacity);
+            seen = Arrays.copyOf(seen, capacity);
+            sent = Arrays.copyOf(sent, capacity);
+        }
+    }
+
+    private final class ObserverTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        ObserverTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ObserverTask(from, mid), new ObserverTask(mid, to));
+                return;
+            }
+
+            observers.get(from).replicate();
+        }
+    }
+}
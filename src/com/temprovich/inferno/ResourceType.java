@@ -0,0 +1,24 @@
+package com.temprovich.inferno;
+
+final class ResourceType {
+
+    private static int count = 0;
+
+    private static final ClassValue<Integer> indices = new ClassValue<Integer>() {
+        
+        @Override
+        protected Integer computeValue(final Class<?> type) {
+            return assign();
+        }
+    };
+
+    private ResourceType() {}
+
+    static int index(final Class<?> type) {
+        return indices.get(type);
+    }
+
+    private static synchronized int assign() {
+        return count++;
+    }
+}
@@ -0,0 +1,320 @@
+package com.temprovich.inferno;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Ring of the last frames of a registry for prediction and rollback. Capturing a
+ * frame encodes every entity into the slot's preallocated buffer with the
+ * registered codecs; restoring decodes the components back into the live
+ * instances, destroys entities created since and re-adds entities destroyed since.
+ * Once the buffers have grown to the size of the world neither step allocates.
+ * <p>
+ * Restored entities keep their identity but an entity that has to be re-added
+ * receives a new id. Restoring moves the registry tick back but not its sequence
+ * number: the restore is recorded as ordinary changes, so deltas and journals
+ * written afterwards take readers from the discarded future to the restored state.
+ */
+public final class Rollback {
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private static final long NONE = -1L;
+
+    private final Registry registry;
+    private final Slot[] slots;
+
+    // restore bookkeeping, reused across calls
+    private long[] marks;
+    private long epoch;
+    private Entity[] scratch;
+
+    public Rollback(Registry registry, int frames) {
+        if (frames <= 0) {
+            throw new IllegalArgumentException("Frame count must be positive: " + frames);
+        }
+
+        this.registry = registry;
+        this.slots = new Slot[frames];
+        this.marks = new long[DEFAULT_INITIAL_CAPACITY];
+        this.epoch = 0L;
+        this.scratch = new Entity[DEFAULT_INITIAL_CAPACITY];
+
+        for (int i = 0; i < frames; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    /**
+     * Captures the current state under the registry's current tick, replacing the
+     * oldest frame, and returns that tick.
+     */
+    public long capture() {
+        long tick = registry.getTick();
+        Slot slot = find(tick);
+
+        if (slot == null) {
+            slot = oldest();
+        }
+
+        slot.tick = NONE;
+        slot.count = 0;
+        slot.output.buffer().clear();
+
+        for (var entity : registry) {
+            slot.add(entity);
+            write(slot, entity);
+        }
+
+        slot.tick = tick;
+        return tick;
+    }
+
+    /**
+     * Puts the registry back into the state captured at the given tick, including
+     * the tick itself, so that the following updates simulate forward from there.
+     */
+    public void restore(final long tick) {
+        Slot slot = find(tick);
+
+        if (slot == null) {
+            throw new IllegalArgumentException("No frame captured at tick " + tick);
+        }
+        if (registry.isUpdating()) {
+            throw new IllegalStateException("Cannot restore while updating");
+        }
+
+        // destroy whatever is alive now but was not at the time
+        epoch++;
+
+        for (int i = 0; i < slot.count; i++) {
+            Entity entity = slot.entities[i];
+
+            if (entity.getRegistry() == registry) {
+                mark(entity.id);
+            }
+        }
+
+        int doomed = 0;
+
+        for (var entity : registry) {
+            if (entity.id >= marks.length || marks[entity.id] != epoch) {
+                if (doomed == scratch.length) {
+                    scratch = Arrays.copyOf(scratch, (scratch.length * 3) / 2 + 1);
+                }
+
+                scratch[doomed++] = entity;
+            }
+        }
+
+        registry.destroyBatch(scratch, doomed);
+        Arrays.fill(scratch, 0, doomed, null);
+
+        ByteBuffer in = slot.output.buffer().duplicate().flip().order(ByteOrder.LITTLE_ENDIAN);
+
+        // entities may have swapped unique keys since, which only fits once all are restored
+        registry.suspendIndices();
+
+        try {
+            for (int i = 0; i < slot.count; i++) {
+                read(slot.entities[i], in);
+            }
+        } finally {
+            registry.rebuildIndices();
+        }
+
+        registry.setTick(tick);
+
+        // frames after the restored one describe a future that no longer happens
+        for (var s : slots) {
+            if (s.tick > tick) {
+                s.tick = NONE;
+            }
+        }
+    }
+
+    public boolean has(final long tick) {
+        return find(tick) != null;
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    public Registry getRegistry() {
+        return registry;
+    }
+
+    private Slot find(final long tick) {
+        for (var slot : slots) {
+            if (slot.tick == tick) {
+                return slot;
+            }
+        }
+
+        return null;
+    }
+
+    // an empty slot, or else the one holding the earliest tick
+    private Slot oldest() {
+        Slot oldest = slots[0];
+
+        for (var slot : slots) {
+            if (slot.tick < oldest.tick) {
+                oldest = slot;
+            }
+        }
+
+        return oldest;
+    }
+
+    private void mark(final int id) {
+        if (id >= marks.length) {
+            marks = Arrays.copyOf(marks, Math.max(id + 1, (marks.length * 3) / 2 + 1));
+        }
+
+        marks[id] = epoch;
+    }
+
+    // flags, tags, component types, then the encoded components in the same order
+    private void write(final Slot slot, final Entity entity) {
+        Snapshots.Output out = slot.output;
+        int[] tags = entity.archetype.tags;
+
+        out.putInt(entity.flags);
+        out.putInt(tags.length);
+
+        for (var bit : tags) {
+            out.putInt(bit);
+        }
+
+        out.putInt(entity.getComponents().size());
+
+        for (var component : entity.getComponents()) {
+            out.putInt(ComponentType.index(component.getClass()));
+        }
+
+        for (var component : entity.getComponents()) {
+            out.encode(registry.codec(component.getClass()), component);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void read(final Entity entity, final ByteBuffer in) {
+        int flags = in.getInt();
+        int tagsAt = in.position();
+        int tags = in.getInt();
+        in.position(in.position() + tags * Integer.BYTES);
+        int components = in.getInt();
+        int typesAt = in.position();
+        in.position(typesAt + components * Integer.BYTES);
+
+        if (entity.getRegistry() == registry && !matches(entity, in, typesAt, components)) {
+            // the components were replaced since, so rebuild the entity
+            registry.release(entity);
+        }
+
+        if (entity.getRegistry() == registry) {
+            for (int c = 0; c < components; c++) {
+                Class<?> type = ComponentType.type(in.getInt(typesAt + c * Integer.BYTES));
+                Component component = entity.get(type.asSubclass(Component.class));
+                ((Codec<Component>) registry.codec(type)).read(in, component);
+                registry.changed(entity, component.getClass());
+            }
+
+            entity.setFlags(flags);
+            retag(entity, in, tagsAt);
+            return;
+        }
+
+        if (entity.getRegistry() != null) {
+            throw new IllegalStateException("Entity was moved to another registry");
+        }
+
+        entity.flush();
+
+        for (int c = 0; c < components; c++) {
+            Class<?> type = ComponentType.type(in.getInt(typesAt + c * Integer.BYTES));
+            entity.attach((Component) registry.codec(type).read(in));
+        }
+
+        for (int t = 0; t < tags; t++) {
+            entity.signature().set(in.getInt(tagsAt + Integer.BYTES * (t + 1)));
+        }
+
+        entity.flags = flags;
+        registry.add(entity);
+    }
+
+    // whether the entity still holds exactly the captured component types
+    private static boolean matches(final Entity entity, final ByteBuffer in, final int typesAt, final int components) {
+        if (entity.getComponents().size() != components) {
+            return false;
+        }
+
+        for (int c = 0; c < components; c++) {
+            if (!entity.signature().get(in.getInt(typesAt + c * Integer.BYTES))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void retag(final Entity entity, final ByteBuffer in, final int tagsAt) {
+        int end = in.position();
+        in.position(tagsAt);
+        int tags = in.getInt();
+        BitSet signature = entity.signature();
+
+        for (var bit : entity.archetype.tags) {
+            if (!contains(in, tagsAt + Integer.BYTES, tags, bit)) {
+                entity.untag(ComponentType.type(bit).asSubclass(Tag.class));
+            }
+        }
+
+        for (int t = 0; t < tags; t++) {
+            int bit = in.getInt(tagsAt + Integer.BYTES * (t + 1));
+
+            if (!signature.get(bit)) {
+                entity.tag(ComponentType.type(bit).asSubclass(Tag.class));
+            }
+        }
+
+        in.position(end);
+    }
+
+    private static boolean contains(final ByteBuffer in, final int at, final int count, final int bit) {
+        for (int t = 0; t < count; t++) {
+            if (in.getInt(at + Integer.BYTES * t) == bit) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static final class Slot {
+
+        private long tick;
+        private Entity[] entities;
+        private int count;
+        private final Snapshots.Output output;
+
+        Slot() {
+            this.tick = NONE;
+            this.entities = new Entity[DEFAULT_INITIAL_CAPACITY];
+            this.count = 0;
+            this.output = new Snapshots.Output(null, ByteBuffer.allocateDirect(DEFAULT_INITIAL_CAPACITY * 64));
+        }
+
+        void add(final Entity entity) {
+            if (count == entities.length) {
+                entities = Arrays.copyOf(entities, (entities.length * 3) / 2 + 1);
+            }
+
+            entities[count++] = entity;
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package com.temprovich.inferno;
 
 import java.util.List;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 
 public final class SceneGraph<T> {
     
@@ -11,6 +13,32 @@ public final class SceneGraph<T> {
         this.root = new SceneNode<T>();
     }
 
+    public SceneNode<T> getRoot() {
+        return root;
+    }
+
+    public FlatSceneGraph<T> flatten() {
+        FlatSceneGraph<T> graph = new FlatSceneGraph<T>();
+        Deque<SceneNode<T>> nodes = new ArrayDeque<SceneNode<T>>();
+        Deque<Integer> handles = new ArrayDeque<Integer>();
+
+        graph.set(FlatSceneGraph.ROOT, root.value);
+        nodes.add(root);
+        handles.add(FlatSceneGraph.ROOT);
+
+        while (!nodes.isEmpty()) {
+            SceneNode<T> node = nodes.poll();
+            int handle = handles.poll();
+
+            for (var child : node.children) {
+                nodes.add(child);
+                handles.add(graph.add(handle, child.value));
+            }
+        }
+
+        return graph;
+    }
+
     public static final class SceneNode<T> {
 
         private T value;
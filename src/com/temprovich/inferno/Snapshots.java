@@ -0,0 +1,382 @@
+package com.temprovich.inferno;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.temprovich.inferno.system.PersistentSystem;
+import com.temprovich.inferno.util.Bag;
+
+/**
+ * Binary world snapshots. Entities are written in blocks of one archetype each:
+ * the block names its types once and then lists every entity's flags followed by
+ * one encoded component per type, so loading can create a whole block and add it
+ * to the registry as one batch.
+ *
+ * <pre>
+ * int magic, int version, int typeCount, typeCount * string name
+ * int blockCount, per block: int k, k * int type, int n, n * (int flags, components)
+ * int systemCount, per system: string name, int length, length bytes
+ * </pre>
+ */
+final class Snapshots {
+
+    static final int MAGIC = 0x494E4657;
+    static final int VERSION = 1;
+
+    private static final int CHUNK = 1 << 20;
+    private static final String PARTIAL = ".partial";
+
+    private Snapshots() {}
+
+    // written next to the target and moved over it once complete, so a failed save
+    // leaves the previous snapshot in place
+    static void save(final Registry registry, final Path path, final boolean systems) throws IOException {
+        Path partial = path.resolveSibling(path.getFileName() + PARTIAL);
+
+        try {
+            try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                Output out = new Output(channel);
+                write(registry, out, systems);
+                out.flush();
+                channel.force(false);
+            }
+
+            Files.move(partial, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (UncheckedIOException e) {
+            Files.deleteIfExists(partial);
+            throw e.getCause();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+    }
+
+    static void load(final Registry registry, final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too large to map: " + size + " bytes");
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            read(registry, buffer);
+        }
+    }
+
+    static void write(final Registry registry, final Output out, final boolean systems) {
+        Map<Archetype, Bag<Entity>> blocks = new IdentityHashMap<Archetype, Bag<Entity>>();
+        Map<Class<?>, Integer> types = new LinkedHashMap<Class<?>, Integer>();
+
+        for (var entity : registry) {
+            Bag<Entity> block = blocks.get(entity.archetype);
+
+            if (block == null) {
+                block = new Bag<Entity>();
+                blocks.put(entity.archetype, block);
+
+                for (var type : typesOf(entity.archetype)) {
+                    if (!ComponentType.isTag(type)) {
+                        registry.codec(type);
+                    }
+                    if (!types.containsKey(type)) {
+                        types.put(type, types.size());
+                    }
+                }
+            }
+
+            block.add(entity);
+        }
+
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putInt(types.size());
+
+        for (var type : types.keySet()) {
+            out.putString(type.getName());
+        }
+
+        out.putInt(blocks.size());
+
+        for (var entry : blocks.entrySet()) {
+            Class<?>[] blockTypes = typesOf(entry.getKey());
+            Bag<Entity> block = entry.getValue();
+            Codec<?>[] codecs = new Codec<?>[blockTypes.length];
+            int components = 0;
+
+            out.putInt(blockTypes.length);
+
+            for (int t = 0; t < blockTypes.length; t++) {
+                out.putInt(types.get(blockTypes[t]));
+
+                if (!ComponentType.isTag(blockTypes[t])) {
+                    codecs[t] = registry.codec(blockTypes[t]);
+                    components++;
+                }
+            }
+
+            out.putInt(block.size());
+
+            for (int i = 0; i < block.size(); i++) {
+                Entity entity = block.get(i);
+
+                if (entity.getComponents().size() != components) {
+                    throw new IllegalStateException("Cannot save an entity holding several components of one type");
+                }
+
+                out.putInt(entity.flags);
+
+                for (int t = 0; t < blockTypes.length; t++) {
+                    if (codecs[t] != null) {
+                        out.encode(codecs[t], entity.get(blockTypes[t].asSubclass(Component.class)));
+                    }
+                }
+            }
+        }
+
+        List<PersistentSystem> persistent = new ArrayList<PersistentSystem>();
+
+        if (systems) {
+            for (int i = 0; i < registry.systemCount(); i++) {
+                if (registry.getSystem(i) instanceof PersistentSystem) {
+                    persistent.add((PersistentSystem) registry.getSystem(i));
+                }
+            }
+        }
+
+        out.putInt(persistent.size());
+
+        for (var system : persistent) {
+            ByteBuffer state = encode(system);
+            out.putString(system.getClass().getName());
+            out.putInt(state.remaining());
+            out.put(state);
+        }
+    }
+
+    static void read(final Registry registry, final ByteBuffer in) {
+        if (in.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a registry snapshot");
+        }
+
+        int version = in.getInt();
+
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported snapshot version " + version);
+        }
+
+        Class<?>[] types = new Class<?>[in.getInt()];
+
+        for (int t = 0; t < types.length; t++) {
+            types[t] = resolve(ReflectiveCodec.readString(in));
+        }
+
+        int blocks = in.getInt();
+
+        for (int b = 0; b < blocks; b++) {
+            int k = in.getInt();
+            Class<?>[] blockTypes = new Class<?>[k];
+            Codec<?>[] codecs = new Codec<?>[k];
+
+            for (int t = 0; t < k; t++) {
+                blockTypes[t] = types[in.getInt()];
+
+                if (!ComponentType.isTag(blockTypes[t])) {
+                    codecs[t] = registry.codec(blockTypes[t]);
+                }
+            }
+
+            int n = in.getInt();
+            Entity[] batch = new Entity[n];
+            int components = 0;
+
+            for (var codec : codecs) {
+                components += codec != null ? 1 : 0;
+            }
+
+            for (int i = 0; i < n; i++) {
+                Entity entity = new Entity(components);
+                entity.flags = in.getInt();
+
+                for (int t = 0; t < k; t++) {
+                    if (codecs[t] != null) {
+                        entity.attach((Component) codecs[t].read(in));
+                    } else {
+                        entity.signature().set(ComponentType.index(blockTypes[t]));
+                    }
+                }
+
+                batch[i] = entity;
+            }
+
+            registry.addBatch(batch, 0, n);
+        }
+
+        int systems = in.getInt();
+
+        for (int s = 0; s < systems; s++) {
+            String name = ReflectiveCodec.readString(in);
+            int length = in.getInt();
+            ByteBuffer state = in.slice().limit(length).order(ByteOrder.LITTLE_ENDIAN);
+            in.position(in.position() + length);
+
+            for (int i = 0; i < registry.systemCount(); i++) {
+                if (registry.getSystem(i) instanceof PersistentSystem && registry.getSystem(i).getClass().getName().equals(name)) {
+                    ((PersistentSystem) registry.getSystem(i)).load(state);
+                }
+            }
+        }
+    }
+
+    // one entry per signature bit, unlike Archetype.types which may repeat a class
+    static Class<?>[] typesOf(final Archetype archetype) {
+        BitSet signature = archetype.signature;
+        Class<?>[] types = new Class<?>[signature.cardinality()];
+        int t = 0;
+
+        for (int bit = signature.nextSetBit(0); bit >= 0; bit = signature.nextSetBit(bit + 1)) {
+            types[t++] = ComponentType.type(bit);
+        }
+
+        return types;
+    }
+
+    static Class<?> resolve(final String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Unknown type " + name + " in snapshot", e);
+        }
+    }
+
+    private static ByteBuffer encode(final PersistentSystem system) {
+        ByteBuffer buffer = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (true) {
+            try {
+                system.save(buffer);
+                buffer.flip();
+                return buffer;
+            } catch (BufferOverflowException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+    }
+
+    /**
+     * Chunked output. Values are gathered in a direct buffer that is handed to the
+     * channel whenever it runs full; without a channel the buffer grows instead.
+     */
+    static final class Output {
+
+        private final WritableByteChannel channel;
+        private ByteBuffer buffer;
+
+        Output(WritableByteChannel channel) {
+            this(channel, ByteBuffer.allocateDirect(CHUNK));
+        }
+
+        Output(WritableByteChannel channel, ByteBuffer buffer) {
+            this.channel = channel;
+            this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void putInt(final int value) {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+        }
+
+        void putLong(final long value) {
+            ensure(Long.BYTES);
+            buffer.putLong(value);
+        }
+
+        void putString(final String value) {
+            ensure(Integer.BYTES + 3 * value.length());
+            ReflectiveCodec.writeString(value, buffer);
+        }
+
+        void put(final ByteBuffer bytes) {
+            ensure(bytes.remaining());
+            buffer.put(bytes);
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> void encode(final Codec<T> codec, final Object value) {
+            while (true) {
+                int start = buffer.position();
+
+                try {
+                    codec.write((T) value, buffer);
+                    return;
+                } catch (BufferOverflowException e) {
+                    buffer.position(start);
+
+                    if (start == 0 || channel == null) {
+                        grow(buffer.capacity() * 2);
+                    } else {
+                        flush();
+                    }
+                }
+            }
+        }
+
+        ByteBuffer buffer() {
+            return buffer;
+        }
+
+        void flush() {
+            if (channel == null) {
+                return;
+            }
+
+            buffer.flip();
+
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            buffer.clear();
+        }
+
+        private void ensure(final int bytes) {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+
+            flush();
+
+            if (buffer.remaining() < bytes) {
+                grow(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+            }
+        }
+
+        private void grow(final int capacity) {
+            ByteBuffer larger = buffer.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+            buffer.flip();
+            larger.order(ByteOrder.LITTLE_ENDIAN).put(buffer);
+            buffer = larger;
+        }
+    }
+}
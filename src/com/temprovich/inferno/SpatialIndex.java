@@ -0,0 +1,576 @@
+package com.temprovich.inferno;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import com.temprovich.inferno.util.ToFloatFunction;
+
+/**
+ * Uniform hash grid over the position stored in one component type. The index
+ * follows the registry on its own, tracking every entity that carries the
+ * component. Positions are cached inside the index: entities whose position
+ * changed are reported through {@link #markMoved} and re-bucketed in one batch the
+ * next time the index is flushed, which the registry does after every update and
+ * before every query.
+ */
+public final class SpatialIndex<T extends Component> implements EntityListener {
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private static final int NONE = -1;
+
+    private final Class<T> type;
+    private final ToFloatFunction<? super T> x;
+    private final ToFloatFunction<? super T> y;
+    private final ToFloatFunction<? super T> z;
+    private final float cellSize;
+    private final float inverseCellSize;
+
+    // by entity id
+    private Entity[] entities;
+    private float[] positions;
+    private int[] cells;
+    private int[] slots;
+    private boolean[] moved;
+    private int[] movedIds;
+    private int movedCount;
+    private int size;
+
+    // cell coordinates to cell index, open addressing, NONE marks a free slot
+    private int[] table;
+    private int mask;
+
+    // cells that lose their last entity are removed, the last cell taking their index
+    private long[] cellX;
+    private long[] cellY;
+    private long[] cellZ;
+    private int[][] members;
+    private int[] counts;
+    private int cellCount;
+
+    // k-nearest scratch, max-heap on distance
+    private float[] heapDistances;
+    private int[] heapIds;
+
+    SpatialIndex(Class<T> type, float cellSize, ToFloatFunction<? super T> x, ToFloatFunction<? super T> y, ToFloatFunction<? super T> z) {
+        if (cellSize <= 0f) {
+            throw new IllegalArgumentException("Cell size must be positive");
+        }
+
+        this.type = type;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.cellSize = cellSize;
+        this.inverseCellSize = 1f / cellSize;
+        this.entities = new Entity[DEFAULT_INITIAL_CAPACITY];
+        this.positions = new float[DEFAULT_INITIAL_CAPACITY * 3];
+        this.cells = new int[DEFAULT_INITIAL_CAPACITY];
+        this.slots = new int[DEFAULT_INITIAL_CAPACITY];
+        this.moved = new boolean[DEFAULT_INITIAL_CAPACITY];
+        this.movedIds = new int[DEFAULT_INITIAL_CAPACITY];
+        this.movedCount = 0;
+        this.size = 0;
+        this.table = new int[DEFAULT_INITIAL_CAPACITY];
+        this.mask = DEFAULT_INITIAL_CAPACITY - 1;
+        this.cellX = new long[DEFAULT_INITIAL_CAPACITY];
+        this.cellY = new long[DEFAULT_INITIAL_CAPACITY];
+        this.cellZ = new long[DEFAULT_INITIAL_CAPACITY];
+        this.members = new int[DEFAULT_INITIAL_CAPACITY][];
+        this.counts = new int[DEFAULT_INITIAL_CAPACITY];
+        this.cellCount = 0;
+        this.heapDistances = new float[0];
+        this.heapIds = new int[0];
+
+        Arrays.fill(table, NONE);
+    }
+
+    @Override
+    public void onEntityAdd(Entity entity) {
+        int id = entity.id;
+        ensureCapacity(id);
+
+        entities[id] = entity;
+        locate(id);
+        place(id, cellOf(id));
+        size++;
+    }
+
+    @Override
+    public void onEntityRemove(Entity entity) {
+        int id = entity.id;
+
+        if (id < 0 || id >= entities.length || entities[id] != entity) {
+            return;
+        }
+
+        unplace(id);
+        entities[id] = null;
+        moved[id] = false;
+        size--;
+    }
+
+    public void markMoved(final Entity entity) {
+        int id = entity.id;
+
+        if (id < 0 || id >= entities.length || entities[id] != entity || moved[id]) {
+            return;
+        }
+        if (movedCount == movedIds.length) {
+            movedIds = Arrays.copyOf(movedIds, (movedIds.length * 3) / 2 + 1);
+        }
+
+        moved[id] = true;
+        movedIds[movedCount++] = id;
+    }
+
+    public void markAllMoved() {
+        for (int id = 0; id < entities.length; id++) {
+            if (entities[id] != null) {
+                markMoved(entities[id]);
+            }
+        }
+    }
+
+    /**
+     * Re-reads the position of every entity marked as moved and moves it to its
+     * new cell if it left the old one.
+     */
+    public void flush() {
+        for (int i = 0; i < movedCount; i++) {
+            int id = movedIds[i];
+
+            if (!moved[id]) {
+                continue;
+            }
+
+            moved[id] = false;
+            locate(id);
+
+            // leaving the old cell may remove it, so the new one is looked up afterwards
+            if (!inside(id, cells[id])) {
+                unplace(id);
+                place(id, cellOf(id));
+            }
+        }
+
+        movedCount = 0;
+    }
+
+    public int query(final Region region, final Consumer<Entity> action) {
+        return query(region, null, action);
+    }
+
+    /**
+     * Reports every entity inside the region that also belongs to the family, or
+     * every entity inside the region if the family is null.
+     */
+    public int query(final Region region, final Family family, final Consumer<Entity> action) {
+        flush();
+
+        boolean planar = z == null;
+        long x0 = floor(region.minX), x1 = floor(region.maxX);
+        long y0 = floor(region.minY), y1 = floor(region.maxY);
+        long z0 = planar ? 0 : floor(region.minZ), z1 = planar ? 0 : floor(region.maxZ);
+        double range = ((double) x1 - x0 + 1) * ((double) y1 - y0 + 1) * ((double) z1 - z0 + 1);
+        int found = 0;
+
+        // a region covering more cells than exist is cheaper to answer cell by cell
+        if (range > cellCount) {
+            for (int c = 0; c < cellCount; c++) {
+                found += test(c, region, family, action);
+            }
+
+            return found;
+        }
+
+        for (long i = x0; i <= x1; i++) {
+            for (long j = y0; j <= y1; j++) {
+                for (long k = z0; k <= z1; k++) {
+                    int c = find(i, j, k);
+
+                    if (c != NONE) {
+                        found += test(c, region, family, action);
+                    }
+                }
+            }
+        }
+
+        return found;
+    }
+
+    public int nearest(final float px, final float py, final float pz, final int k, final Entity[] out) {
+        return nearest(px, py, pz, k, null, out);
+    }
+
+    /**
+     * Writes the up to {@code k} entities closest to the point into {@code out},
+     * nearest first, and returns how many were found. The grid is searched in
+     * rings of cells around the point until no closer entity can remain.
+     */
+    public int nearest(final float px, final float py, final float pz, final int k, final Family family, final Entity[] out) {
+        flush();
+
+        if (k <= 0 || size == 0) {
+            return 0;
+        }
+        if (heapDistances.length < k) {
+            heapDistances = new float[k];
+            heapIds = new int[k];
+        }
+
+        boolean planar = z == null;
+        long cx = floor(px), cy = floor(py), cz = planar ? 0 : floor(pz);
+        int count = 0;
+        int visited = 0;
+
+        for (int ring = 0; visited < size; ring++) {
+            long side = 2L * ring + 1;
+
+            // once the rings outgrow the populated cells, scan those directly
+            if ((planar ? side * side : side * side * side) > 2L * cellCount) {
+                count = 0;
+
+                for (int c = 0; c < cellCount; c++) {
+                    count = collect(c, px, py, pz, k, family, count);
+                }
+
+                break;
+            }
+
+            for (long i = cx - ring; i <= cx + ring; i++) {
+                for (long j = cy - ring; j <= cy + ring; j++) {
+                    boolean edge = Math.abs(i - cx) == ring || Math.abs(j - cy) == ring;
+
+                    if (planar) {
+                        if (edge) {
+                            int c = find(i, j, 0);
+                            if (c != NONE) {
+                                count = collect(c, px, py, pz, k, family, count);
+                                visited += counts[c];
+                            }
+                        }
+                    } else {
+                        for (long l = cz - ring; l <= cz + ring; l += edge || ring == 0 ? 1 : 2L * ring) {
+                            int c = find(i, j, l);
+                            if (c != NONE) {
+                                count = collect(c, px, py, pz, k, family, count);
+                                visited += counts[c];
+                            }
+                        }
+                    }
+                }
+            }
+
+            float reach = ring * cellSize;
+            if (count == k && heapDistances[0] <= reach * reach) {
+                break;
+            }
+        }
+
+        // pop the heap from the back so the nearest entity ends up first
+        for (int n = count - 1; n >= 0; n--) {
+            out[n] = entities[heapIds[0]];
+            heapDistances[0] = heapDistances[n];
+            heapIds[0] = heapIds[n];
+            sift(0, n);
+        }
+
+        return count;
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    public float getCellSize() {
+        return cellSize;
+    }
+
+    public boolean contains(final Entity entity) {
+        int id = entity.id;
+        return id >= 0 && id < entities.length && entities[id] == entity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int cellCount() {
+        return cellCount;
+    }
+
+    private int test(final int cell, final Region region, final Family family, final Consumer<Entity> action) {
+        int[] ids = members[cell];
+        int found = 0;
+
+        for (int s = 0; s < counts[cell]; s++) {
+            int id = ids[s];
+            int o = id * 3;
+
+            if (region.contains(positions[o], positions[o + 1], positions[o + 2]) && accepts(id, family)) {
+                action.accept(entities[id]);
+                found++;
+            }
+        }
+
+        return found;
+    }
+
+    private int collect(final int cell, final float px, final float py, final float pz, final int k, final Family family, int count) {
+        int[] ids = members[cell];
+
+        for (int s = 0; s < counts[cell]; s++) {
+            int id = ids[s];
+            int o = id * 3;
+            float dx = positions[o] - px;
+            float dy = positions[o + 1] - py;
+            float dz = z == null ? 0f : positions[o + 2] - pz;
+            float distance = dx * dx + dy * dy + dz * dz;
+
+            if (count == k && distance >= heapDistances[0]) {
+                continue;
+            }
+            if (!accepts(id, family)) {
+                continue;
+            }
+
+            if (count < k) {
+                // sift the new entry up
+                int n = count++;
+                while (n > 0) {
+                    int parent = (n - 1) >>> 1;
+                    if (heapDistances[parent] >= distance) {
+                        break;
+                    }
+                    heapDistances[n] = heapDistances[parent];
+                    heapIds[n] = heapIds[parent];
+                    n = parent;
+                }
+                heapDistances[n] = distance;
+                heapIds[n] = id;
+            } else {
+                heapDistances[0] = distance;
+                heapIds[0] = id;
+                sift(0, count);
+            }
+        }
+
+        return count;
+    }
+
+    private void sift(int n, final int count) {
+        float distance = heapDistances[n];
+        int id = heapIds[n];
+
+        while (true) {
+            int child = 2 * n + 1;
+            if (child >= count) {
+                break;
+            }
+            if (child + 1 < count && heapDistances[child + 1] > heapDistances[child]) {
+                child++;
+            }
+            if (heapDistances[child] <= distance) {
+                break;
+            }
+
+            heapDistances[n] = heapDistances[child];
+            heapIds[n] = heapIds[child];
+            n = child;
+        }
+
+        heapDistances[n] = distance;
+        heapIds[n] = id;
+    }
+
+    private boolean accepts(final int id, final Family family) {
+        return family == null || entities[id].archetype.accepts(family);
+    }
+
+    private void locate(final int id) {
+        T component = entities[id].get(type);
+        int o = id * 3;
+
+        positions[o] = x.applyAsFloat(component);
+        positions[o + 1] = y.applyAsFloat(component);
+        positions[o + 2] = z == null ? 0f : z.applyAsFloat(component);
+    }
+
+    private int cellOf(final int id) {
+        int o = id * 3;
+        long i = floor(positions[o]), j = floor(positions[o + 1]), k = z == null ? 0 : floor(positions[o + 2]);
+        int cell = find(i, j, k);
+
+        return cell != NONE ? cell : createCell(i, j, k);
+    }
+
+    private boolean inside(final int id, final int cell) {
+        int o = id * 3;
+        return cellX[cell] == floor(positions[o]) && cellY[cell] == floor(positions[o + 1])
+            && cellZ[cell] == (z == null ? 0 : floor(positions[o + 2]));
+    }
+
+    private void place(final int id, final int cell) {
+        if (counts[cell] == members[cell].length) {
+            members[cell] = Arrays.copyOf(members[cell], (members[cell].length * 3) / 2 + 1);
+        }
+
+        members[cell][counts[cell]] = id;
+        slots[id] = counts[cell]++;
+        cells[id] = cell;
+    }
+
+    private void unplace(final int id) {
+        int cell = cells[id];
+        int slot = slots[id];
+        int last = members[cell][--counts[cell]];
+
+        members[cell][slot] = last;
+        slots[last] = slot;
+        cells[id] = NONE;
+
+        if (counts[cell] == 0) {
+            removeCell(cell);
+        }
+    }
+
+    private long floor(final float value) {
+        return (long) Math.floor(value * inverseCellSize);
+    }
+
+    private static int hash(final long i, final long j, final long k) {
+        long h = (i * 0x9E3779B97F4A7C15L) ^ (j * 0xC2B2AE3D27D4EB4FL) ^ (k * 0x165667B19E3779F9L);
+        h ^= h >>> 29;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int hash(final int cell) {
+        return hash(cellX[cell], cellY[cell], cellZ[cell]);
+    }
+
+    private int find(final long i, final long j, final long k) {
+        for (int s = hash(i, j, k) & mask; ; s = (s + 1) & mask) {
+            int cell = table[s];
+
+            if (cell == NONE) {
+                return NONE;
+            }
+            if (cellX[cell] == i && cellY[cell] == j && cellZ[cell] == k) {
+                return cell;
+            }
+        }
+    }
+
+    // table slot holding the cell
+    private int slotOf(final int cell) {
+        int s = hash(cell) & mask;
+
+        while (table[s] != cell) {
+            s = (s + 1) & mask;
+        }
+
+        return s;
+    }
+
+    private int createCell(final long i, final long j, final long k) {
+        if (cellCount == cellX.length) {
+            int capacity = (cellX.length * 3) / 2 + 1;
+            cellX = Arrays.copyOf(cellX, capacity);
+            cellY = Arrays.copyOf(cellY, capacity);
+            cellZ = Arrays.copyOf(cellZ, capacity);
+            members = Arrays.copyOf(members, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+
+        int cell = cellCount++;
+        cellX[cell] = i;
+        cellY[cell] = j;
+        cellZ[cell] = k;
+        counts[cell] = 0;
+
+        // a removed cell leaves its member array behind for reuse
+        if (members[cell] == null) {
+            members[cell] = new int[4];
+        }
+
+        if (2 * cellCount > table.length) {
+            rehash(table.length * 2);
+        } else {
+            insert(cell);
+        }
+
+        return cell;
+    }
+
+    private void removeCell(final int cell) {
+        // backward shift deletion keeps every probe sequence unbroken
+        int free = slotOf(cell);
+        table[free] = NONE;
+
+        for (int s = (free + 1) & mask; table[s] != NONE; s = (s + 1) & mask) {
+            int home = hash(table[s]) & mask;
+
+            // entries whose home lies cyclically in (free, s] stay where they are
+            if (free <= s ? free < home && home <= s : free < home || home <= s) {
+                continue;
+            }
+
+            table[free] = table[s];
+            table[s] = NONE;
+            free = s;
+        }
+
+        int last = --cellCount;
+
+        if (cell != last) {
+            table[slotOf(last)] = cell;
+            cellX[cell] = cellX[last];
+            cellY[cell] = cellY[last];
+            cellZ[cell] = cellZ[last];
+            counts[cell] = counts[last];
+
+            int[] ids = members[cell];
+            members[cell] = members[last];
+            members[last] = ids;
+
+            for (int m = 0; m < counts[cell]; m++) {
+                cells[members[cell][m]] = cell;
+            }
+        }
+
+        counts[last] = 0;
+    }
+
+    private void rehash(final int capacity) {
+        table = new int[capacity];
+        mask = capacity - 1;
+        Arrays.fill(table, NONE);
+
+        for (int c = 0; c < cellCount; c++) {
+            insert(c);
+        }
+    }
+
+    private void insert(final int cell) {
+        int s = hash(cell) & mask;
+
+        while (table[s] != NONE) {
+            s = (s + 1) & mask;
+        }
+
+        table[s] = cell;
+    }
+
+    private void ensureCapacity(final int id) {
+        if (id < entities.length) {
+            return;
+        }
+
+        int capacity = Math.max(id + 1, (entities.length * 3) / 2 + 1);
+        entities = Arrays.copyOf(entities, capacity);
+        positions = Arrays.copyOf(positions, capacity * 3);
+        cells = Arrays.copyOf(cells, capacity);
+        slots = Arrays.copyOf(slots, capacity);
+        moved = Arrays.copyOf(moved, capacity);
+    }
+}
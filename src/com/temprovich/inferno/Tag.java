@@ -0,0 +1,16 @@
+package com.temprovich.inferno;
+
+/**
+ * Marker for tag types. A tag is never instantiated: it is stored as a single bit
+ * in the entity's signature and otherwise behaves like a component type in
+ * families, views and queries.
+ *
+ * <pre>
+ * final class Sleeping implements Tag {}
+ *
+ * entity.tag(Sleeping.class);
+ * registry.view(Position.class, Sleeping.class);
+ * </pre>
+ */
+public interface Tag {
+}
@@ -1,17 +1,26 @@
 package com.temprovich.inferno;
 
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.function.ToIntFunction;
 import java.util.stream.Stream;
 
+import com.temprovich.inferno.util.RadixSorter;
+import com.temprovich.inferno.util.ToFloatFunction;
+
 public class View implements Iterable<Entity> {
 
     private Family family;
     private Entity[] entities;
+    private EntitySet source;
+    private long epoch;
 
-    View(Family family, List<Entity> entities) {
+    View(Family family, EntitySet entities) {
         this.family = family;
+        this.source = entities;
+        this.epoch = entities.getEpoch();
         this.entities = new Entity[entities.size()];
         
         for (int i = 0; i < entities.size(); i++) {
@@ -48,6 +57,56 @@ public class View implements Iterable<Entity> {
         return true;
     }
 
+    public View sort(Comparator<Entity> comparator) {
+        Arrays.sort(entities, comparator);
+        return this;
+    }
+
+    public View sort(RadixSorter<Entity> sorter) {
+        sorter.sort(entities);
+        return this;
+    }
+
+    public View sortByInt(ToIntFunction<Entity> key) {
+        return sort(RadixSorter.ofInt(key));
+    }
+
+    public View sortByFloat(ToFloatFunction<Entity> key) {
+        return sort(RadixSorter.ofFloat(key));
+    }
+
+    /**
+     * Keeps only the entities whose flags contain every bit of the mask.
+     */
+    public View withFlags(int mask) {
+        return filter(mask, 0);
+    }
+
+    /**
+     * Drops the entities whose flags contain any bit of the mask.
+     */
+    public View withoutFlags(int mask) {
+        return filter(0, mask);
+    }
+
+    private View filter(int required, int excluded) {
+        int n = 0;
+
+        // branch-free compaction: every entity is written, the cursor only moves on a match
+        for (int i = 0; i < entities.length; i++) {
+            Entity entity = entities[i];
+            int flags = entity.flags;
+            entities[n] = entity;
+            n += (((flags & required) ^ required) | (flags & excluded)) == 0 ? 1 : 0;
+        }
+
+        if (n != entities.length) {
+            entities = Arrays.copyOf(entities, n);
+        }
+
+        return this;
+    }
+
     public Family getFamily() {
         return family;
     }
@@ -56,6 +115,17 @@ public class View implements Iterable<Entity> {
         return entities;
     }
 
+    /**
+     * Structural epoch of the family's entities when this view was taken.
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public boolean isStale() {
+        return source.getEpoch() != epoch;
+    }
+
     public int size() {
         return entities.length;
     }
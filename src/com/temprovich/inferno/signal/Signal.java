@@ -1,28 +1,50 @@
 package com.temprovich.inferno.signal;
 
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 public class Signal<T> implements Iterable<SignalListener<T>> {
 
-    private List<SignalListener<T>> listeners = new CopyOnWriteArrayList<SignalListener<T>>();
+    // created on first registration, most signals never get a listener
+    private volatile List<SignalListener<T>> listeners;
     
     public void register(SignalListener<T> listener) {
-        if (listeners.contains(listener)) return;
-        listeners.add(listener);
+        List<SignalListener<T>> list = listeners;
+
+        if (list == null) {
+            synchronized (this) {
+                if (listeners == null) {
+                    listeners = new CopyOnWriteArrayList<SignalListener<T>>();
+                }
+
+                list = listeners;
+            }
+        }
+
+        if (list.contains(listener)) return;
+        list.add(listener);
     }
     
     public void unregister(SignalListener<T> listener) {
-        listeners.remove(listener);
+        List<SignalListener<T>> list = listeners;
+        if (list != null) list.remove(listener);
     }
     
+    public void clear() {
+        listeners = null;
+    }
+
     public void dispatch(T data) {
-        for (SignalListener<T> listener : listeners) listener.receive(data);
+        List<SignalListener<T>> list = listeners;
+        if (list == null) return;
+        for (SignalListener<T> listener : list) listener.receive(data);
     }
 
     @Override
     public Iterator<SignalListener<T>> iterator() {
-        return listeners.iterator();
+        List<SignalListener<T>> list = listeners;
+        return list == null ? Collections.<SignalListener<T>>emptyIterator() : list.iterator();
     }
 }
\ No newline at end of file
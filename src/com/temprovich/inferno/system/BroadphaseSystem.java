@@ -0,0 +1,365 @@
+package com.temprovich.inferno.system;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.temprovich.inferno.Entity;
+import com.temprovich.inferno.EntityListener;
+import com.temprovich.inferno.Family;
+import com.temprovich.inferno.Registry;
+
+/**
+ * Sort-and-sweep broadphase over the entities of a collider family. Every update
+ * gathers one axis-aligned box per entity through {@link #bounds}, restores the
+ * order of the boxes along the x axis and sweeps it for overlapping pairs.
+ * <p>
+ * The order is kept from one frame to the next and repaired with an insertion
+ * sort, so with typical frame-to-frame motion the cost is close to linear. When
+ * many colliders were added or moved far since the last frame, the order is
+ * rebuilt with a full sort instead. The overlapping pairs are written to a
+ * reusable buffer, read through
+ * {@link #getPairCount}, {@link #getFirst} and {@link #getSecond}, and handed to
+ * {@link #processPair}. Given a pool, the sweep is split into ranges of the sorted
+ * axis that run in parallel; pairs are still reported in sequential order.
+ */
+public abstract class BroadphaseSystem extends IterativeSystem implements EntityListener {
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private static final int BOX = 6;
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int PARALLEL_THRESHOLD = 2048;
+
+    // a full sort replaces the insertion sort once more than one box in this many was
+    // added, or once the insertion sort shifted boxes this many times per box
+    private static final int FULL_SORT_RATIO = 8;
+
+    // by entity id
+    private Entity[] entities;
+    private float[] boxes;
+    private int[] positions;
+
+    // ids sorted by min x, -1 marks a removed entity
+    private int[] order;
+    private int count;
+    private int removed;
+    private int added;
+
+    // sortable min x in the high and id in the low half, for the full sort
+    private long[] keys;
+
+    private final PairBuffer pairs;
+
+    private ForkJoinPool pool;
+    private PairBuffer[] chunks;
+
+    public BroadphaseSystem(Family family) {
+        this(family, 0);
+    }
+
+    public BroadphaseSystem(Family family, int priority) {
+        super(family, priority);
+        this.entities = new Entity[DEFAULT_INITIAL_CAPACITY];
+        this.boxes = new float[DEFAULT_INITIAL_CAPACITY * BOX];
+        this.positions = new int[DEFAULT_INITIAL_CAPACITY];
+        this.order = new int[DEFAULT_INITIAL_CAPACITY];
+        this.count = 0;
+        this.removed = 0;
+        this.added = 0;
+        this.keys = new long[0];
+        this.pairs = new PairBuffer();
+        this.pool = null;
+        this.chunks = new PairBuffer[0];
+    }
+
+    /**
+     * Writes the entity's bounds as {@code minX, minY, minZ, maxX, maxY, maxZ} into
+     * {@code box} starting at {@code offset}. Two dimensional colliders can leave
+     * both z values at zero.
+     */
+    protected abstract void bounds(Entity entity, float[] box, int offset);
+
+    protected void processPair(Entity a, Entity b, float dt) {}
+
+    @Override
+    protected final void process(Entity entity, float dt) {
+        int offset = entity.getId() * BOX;
+        bounds(entity, boxes, offset);
+    }
+
+    @Override
+    public void update(float dt) {
+        // gather the bounds of every collider
+        super.update(dt);
+
+        if (removed > 0) {
+            compact();
+        }
+
+        sort();
+
+        if (pool != null && count >= PARALLEL_THRESHOLD) {
+            sweepParallel();
+        } else {
+            pairs.count = 0;
+            sweep(0, count, pairs);
+        }
+
+        for (int p = 0; p < pairs.count; p++) {
+            processPair(entities[pairs.data[2 * p]], entities[pairs.data[2 * p + 1]], dt);
+        }
+    }
+
+    @Override
+    public void onBind(Registry registry) {
+        super.onBind(registry);
+
+        for (var entity : getEntities()) {
+            onEntityAdd(entity);
+        }
+
+        registry.register(this, getFamily());
+    }
+
+    @Override
+    public void onUnbind(Registry registry) {
+        registry.unregister(this, getFamily());
+        super.onUnbind(registry);
+
+        Arrays.fill(entities, null);
+        count = 0;
+        removed = 0;
+        added = 0;
+        pairs.count = 0;
+    }
+
+    @Override
+    public void onEntityAdd(Entity entity) {
+        int id = entity.getId();
+        ensureCapacity(id);
+
+        if (count == order.length) {
+            order = Arrays.copyOf(order, (order.length * 3) / 2 + 1);
+        }
+
+        // the box is unknown until the next gather; the insertion sort places it
+        Arrays.fill(boxes, id * BOX, id * BOX + BOX, 0f);
+        entities[id] = entity;
+        positions[id] = count;
+        order[count++] = id;
+        added++;
+    }
+
+    @Override
+    public void onEntityRemove(Entity entity) {
+        int id = entity.getId();
+
+        if (id >= entities.length || entities[id] != entity) {
+            return;
+        }
+
+        order[positions[id]] = -1;
+        entities[id] = null;
+        removed++;
+    }
+
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public int getPairCount() {
+        return pairs.count;
+    }
+
+    public Entity getFirst(int pair) {
+        return entities[pairs.data[2 * pair]];
+    }
+
+    public Entity getSecond(int pair) {
+        return entities[pairs.data[2 * pair + 1]];
+    }
+
+    private void compact() {
+        int j = 0;
+
+        for (int i = 0; i < count; i++) {
+            int id = order[i];
+
+            if (id < 0) {
+                continue;
+            }
+
+            order[j] = id;
+            positions[id] = j++;
+        }
+
+        count = j;
+        removed = 0;
+    }
+
+    // insertion sort on min x, nearly linear when the order barely changed
+    private void sort() {
+        int budget = count * FULL_SORT_RATIO;
+        boolean full = added > count / FULL_SORT_RATIO;
+        added = 0;
+
+        for (int i = 1; i < count && !full; i++) {
+            int id = order[i];
+            float key = boxes[id * BOX];
+            int j = i - 1;
+
+            if (boxes[order[j] * BOX] <= key) {
+                continue;
+            }
+
+            while (j >= 0 && boxes[order[j] * BOX] > key) {
+                order[j + 1] = order[j];
+                positions[order[j + 1]] = j + 1;
+                j--;
+            }
+
+            order[j + 1] = id;
+            positions[id] = j + 1;
+            budget -= i - 1 - j;
+            full = budget < 0;
+        }
+
+        if (full) {
+            fullSort();
+        }
+    }
+
+    private void fullSort() {
+        if (keys.length < count) {
+            keys = new long[Math.max(count, (keys.length * 3) / 2 + 1)];
+        }
+
+        for (int i = 0; i < count; i++) {
+            int id = order[i];
+            int bits = Float.floatToIntBits(boxes[id * BOX]);
+            // flips negative floats so their bits order like the values
+            long sortable = bits ^ ((bits >> 31) & 0x7fffffff);
+            keys[i] = (sortable << 32) | id;
+        }
+
+        Arrays.sort(keys, 0, count);
+
+        for (int i = 0; i < count; i++) {
+            int id = (int) keys[i];
+            order[i] = id;
+            positions[id] = i;
+        }
+    }
+
+    // sweeps the boxes starting in [from, to) against everything after them
+    private void sweep(int from, int to, PairBuffer buffer) {
+        for (int i = from; i < to; i++) {
+            int a = order[i];
+            int ao = a * BOX;
+            float maxX = boxes[ao + 3];
+
+            for (int j = i + 1; j < count; j++) {
+                int b = order[j];
+                int bo = b * BOX;
+
+                if (boxes[bo] > maxX) {
+                    break;
+                }
+                if (boxes[ao + 1] > boxes[bo + 4] || boxes[bo + 1] > boxes[ao + 4]
+                 || boxes[ao + 2] > boxes[bo + 5] || boxes[bo + 2] > boxes[ao + 5]) {
+                    continue;
+                }
+
+                buffer.add(a, b);
+            }
+        }
+    }
+
+    private void sweepParallel() {
+        int n = pool.getParallelism() * CHUNKS_PER_THREAD;
+
+        if (chunks.length < n) {
+            int old = chunks.length;
+            chunks = Arrays.copyOf(chunks, n);
+
+            for (int c = old; c < n; c++) {
+                chunks[c] = new PairBuffer();
+            }
+        }
+
+        pool.invoke(new SweepTask(0, n, n));
+
+        pairs.count = 0;
+        for (int c = 0; c < n; c++) {
+            pairs.addAll(chunks[c]);
+        }
+    }
+
+    private void ensureCapacity(int id) {
+        if (id < entities.length) {
+            return;
+        }
+
+        int capacity = Math.max(id + 1, (entities.length * 3) / 2 + 1);
+        entities = Arrays.copyOf(entities, capacity);
+        boxes = Arrays.copyOf(boxes, capacity * BOX);
+        positions = Arrays.copyOf(positions, capacity);
+    }
+
+    private final class SweepTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int chunks;
+
+        SweepTask(int from, int to, int chunks) {
+            this.from = from;
+            this.to = to;
+            this.chunks = chunks;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new SweepTask(from, mid, chunks), new SweepTask(mid, to, chunks));
+                return;
+            }
+
+            PairBuffer buffer = BroadphaseSystem.this.chunks[from];
+            buffer.count = 0;
+            sweep((int) ((long) count * from / chunks), (int) ((long) count * to / chunks), buffer);
+        }
+    }
+
+    private static final class PairBuffer {
+
+        private int[] data = new int[DEFAULT_INITIAL_CAPACITY * 2];
+        private int count = 0;
+
+        void add(int a, int b) {
+            if (2 * count + 2 > data.length) {
+                data = Arrays.copyOf(data, (data.length * 3) / 2 + 2);
+            }
+
+            data[2 * count] = a;
+            data[2 * count + 1] = b;
+            count++;
+        }
+
+        void addAll(PairBuffer other) {
+            if (2 * (count + other.count) > data.length) {
+                data = Arrays.copyOf(data, Math.max(2 * (count + other.count), (data.length * 3) / 2 + 2));
+            }
+
+            System.arraycopy(other.data, 0, data, 2 * count, 2 * other.count);
+            count += other.count;
+        }
+    }
+}
@@ -1,17 +1,17 @@
 package com.temprovich.inferno.system;
 
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
 import com.temprovich.inferno.Entity;
+import com.temprovich.inferno.EntitySet;
 import com.temprovich.inferno.Family;
 import com.temprovich.inferno.Registry;
 
 public abstract class IterativeIntervalSystem extends IntervalSystem implements Iterable<Entity> {
 
     private Family family;
-    private List<Entity> entities;
+    private EntitySet entities;
 
     public IterativeIntervalSystem(Family family, float interval) {
         this(family, interval, 0);
@@ -20,29 +20,35 @@ public abstract class IterativeIntervalSystem extends IntervalSystem implements
     public IterativeIntervalSystem(Family family, float interval, int priority) {
         super(interval, priority);
         this.family = family;
-        this.entities = new ArrayList<Entity>();
+        this.entities = EntitySet.EMPTY;
     }
 
     @Override
     public void onBind(Registry registry) {
-        var view = registry.view(family);
-        
-        for (var entity : view) {
-            entities.add(entity);
-        }
+        entities = registry.group(family);
+    }
+
+    @Override
+    public void onUnbind(Registry registry) {
+        entities = EntitySet.EMPTY;
     }
 
     @Override
     protected void intervalUpdate() {
         push();
 
-        for (int i = 0; i < entities.size(); i++) processEntity(entities.get(i));
+        // backwards, so that destroying the processed entity at once is safe
+        for (int i = entities.size() - 1; i >= 0; i--) processEntity(entities.get(i));
 
         pop();
     }
 
     protected void push() {}
 
+    /**
+     * Processes one entity, visiting the family from its end to its start like
+     * {@link IterativeSystem#process}, with the same rules for destroying entities.
+     */
     protected abstract void processEntity(Entity entity);
 
     protected void pop() {}
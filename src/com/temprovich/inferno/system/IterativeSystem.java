@@ -1,17 +1,22 @@
 package com.temprovich.inferno.system;
 
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
 import com.temprovich.inferno.Entity;
+import com.temprovich.inferno.EntitySet;
 import com.temprovich.inferno.Family;
 import com.temprovich.inferno.Registry;
 
 public abstract class IterativeSystem extends AbstractEntitySystem implements Iterable<Entity> {
 
     private Family family;
-    private List<Entity> entities;
+    private EntitySet entities;
+
+    private int requiredFlags;
+    private int excludedFlags;
+    private int indexedFlag;
+    private EntitySet flagged;
 
     public IterativeSystem(Family family) {
         this(family, 0);
@@ -20,28 +25,108 @@ public abstract class IterativeSystem extends AbstractEntitySystem implements It
     public IterativeSystem(Family family, int priority) {
         super(priority);
         this.family = family;
-        this.entities = new ArrayList<Entity>();
+        this.entities = EntitySet.EMPTY;
+        this.requiredFlags = 0;
+        this.excludedFlags = 0;
+        this.indexedFlag = 0;
+        this.flagged = EntitySet.EMPTY;
     }
 
     @Override
     public void update(float dt) {
-        for (int i = 0; i < entities.size(); i++) process(entities.get(i), dt);
+        if (indexedFlag != 0) {
+            // walk the usually much smaller flag index and test family membership,
+            // backwards so that clearing the flag of the processed entity is safe
+            for (int i = flagged.size() - 1; i >= 0; i--) {
+                Entity entity = flagged.get(i);
+                if (accepts(entity.flags) & entities.contains(entity)) process(entity, dt);
+            }
+        } else if ((requiredFlags | excludedFlags) == 0) {
+            // backwards, so that destroying the processed entity at once is safe
+            for (int i = entities.size() - 1; i >= 0; i--) process(entities.get(i), dt);
+        } else {
+            for (int i = entities.size() - 1; i >= 0; i--) {
+                Entity entity = entities.get(i);
+                if (accepts(entity.flags)) process(entity, dt);
+            }
+        }
+    }
+
+    /**
+     * Only processes entities whose flags contain every bit of the mask.
+     */
+    public IterativeSystem withFlags(int mask) {
+        requiredFlags |= mask;
+        return this;
+    }
+
+    /**
+     * Skips entities whose flags contain any bit of the mask.
+     */
+    public IterativeSystem withoutFlags(int mask) {
+        excludedFlags |= mask;
+        return this;
+    }
+
+    /**
+     * Requires a single flag and iterates the registry's index for it instead of
+     * scanning the whole family, which pays off for sparse flags.
+     */
+    public IterativeSystem withIndexedFlag(int flag) {
+        if (Integer.bitCount(flag) != 1) {
+            throw new IllegalArgumentException("Flag must have exactly one bit set: " + flag);
+        }
+
+        requiredFlags |= flag;
+        indexedFlag = flag;
+
+        if (registry != null) {
+            flagged = registry.flagged(flag);
+        }
+
+        return this;
+    }
+
+    // no short-circuit: a single comparison of the combined mismatch bits
+    private boolean accepts(int flags) {
+        return (((flags & requiredFlags) ^ requiredFlags) | (flags & excludedFlags)) == 0;
     }
 
+    /**
+     * Processes one entity. Entities are visited from the end of the family's set
+     * to its start, so the entity may be destroyed immediately; entities added
+     * meanwhile are first processed by the next update. Immediately destroying
+     * another entity that is still to come moves an entity already processed into
+     * its slot, which is then processed twice; destroy those deferred instead.
+     */
     protected abstract void process(Entity entity, float dt);
 
     @Override
     public void onBind(Registry registry) {
-        var view = registry.view(family);
-        
-        for (var entity : view) {
-            entities.add(entity);
-        }
+        entities = registry.group(family);
+        flagged = indexedFlag != 0 ? registry.flagged(indexedFlag) : EntitySet.EMPTY;
     }
 
     @Override
     public void onUnbind(Registry registry) {
-        entities = null;
+        entities = EntitySet.EMPTY;
+        flagged = EntitySet.EMPTY;
+    }
+
+    public Family getFamily() {
+        return family;
+    }
+
+    public int getRequiredFlags() {
+        return requiredFlags;
+    }
+
+    public int getExcludedFlags() {
+        return excludedFlags;
+    }
+
+    public int getIndexedFlag() {
+        return indexedFlag;
     }
 
     public List<Entity> getEntities() {
@@ -0,0 +1,14 @@
+package com.temprovich.inferno.system;
+
+import java.nio.ByteBuffer;
+
+/**
+ * System whose state is included when the registry saves a snapshot with system
+ * state. The state is matched back to the bound system of the same class on load.
+ */
+public interface PersistentSystem extends EntitySystem {
+
+    public abstract void save(ByteBuffer out);
+
+    public abstract void load(ByteBuffer in);
+}
@@ -1,23 +1,37 @@
 package com.temprovich.inferno.system;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import com.temprovich.inferno.Entity;
 import com.temprovich.inferno.EntityListener;
+import com.temprovich.inferno.EntitySet;
 import com.temprovich.inferno.Family;
 import com.temprovich.inferno.Registry;
+import com.temprovich.inferno.util.RadixSorter;
 
 public abstract class SortedIterativeSystem extends AbstractEntitySystem implements EntityListener, Iterable<Entity> {
 
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private static final int INSERTION_THRESHOLD = 8;
+
     private Family family;
 
-    private final List<Entity> entities;
-    private List<Entity> sortedEntities;
+    private EntitySet entities;
+    private Entity[] sortedEntities;
+    private int size;
     private Comparator<Entity> entityComparator;
-    
+    private RadixSorter<Entity> sorter;
+
+    // position of every sorted entity by id, -1 while its insertion is pending
+    private int[] positions;
+    private final List<Entity> added;
+    private int removed;
+
     private boolean sort = false;
 
     public SortedIterativeSystem(Family family, Comparator<Entity> entityComparator) {
@@ -27,20 +41,59 @@ public abstract class SortedIterativeSystem extends AbstractEntitySystem impleme
     public SortedIterativeSystem(Family family, Comparator<Entity> entityComparator, int priority) {
         super(priority);
         this.family = family;
-        this.entities = new ArrayList<Entity>();
-        this.sortedEntities = new ArrayList<Entity>(16);
+        this.entities = EntitySet.EMPTY;
+        this.sortedEntities = new Entity[DEFAULT_INITIAL_CAPACITY];
+        this.size = 0;
+        this.positions = new int[DEFAULT_INITIAL_CAPACITY];
+        this.added = new ArrayList<Entity>();
+        this.removed = 0;
         this.sort = false;
         this.entityComparator = entityComparator;
+        this.sorter = null;
+    }
+
+    public SortedIterativeSystem(Family family, RadixSorter<Entity> sorter) {
+        this(family, sorter, 0);
     }
 
+    /**
+     * Sorts by a single primitive key. Full sorts run as a radix sort over the
+     * extracted keys; the derived comparator is only used to place small batches.
+     */
+    public SortedIterativeSystem(Family family, RadixSorter<Entity> sorter, int priority) {
+        this(family, sorter.comparator(), priority);
+        this.sorter = sorter;
+    }
+
+    /**
+     * Requests a full re-sort before the next update, for when the keys the
+     * comparator looks at have changed. The re-sort is adaptive, so an order that
+     * only drifted slightly since the last frame is restored in close to linear time.
+     */
     public void force() {
         sort = true;
     }
 
     protected void sort() {
+        if (removed > 0) {
+            compact();
+        }
+
         if (sort) {
-            sortedEntities.sort(entityComparator);
+            append();
+
+            if (sorter != null) {
+                sorter.sort(sortedEntities, 0, size);
+            } else {
+                Arrays.sort(sortedEntities, 0, size, entityComparator);
+            }
+
+            reindex(0);
             sort = false;
+        } else if (added.size() > INSERTION_THRESHOLD) {
+            merge();
+        } else if (!added.isEmpty()) {
+            insert();
         }
     }
 
@@ -49,9 +102,11 @@ public abstract class SortedIterativeSystem extends AbstractEntitySystem impleme
         sort();
 
         push();
-        
-        for (int i = 0; i < sortedEntities.size(); i++) {
-            processEntity(sortedEntities.get(i), dt);
+
+        // entities destroyed during the pass leave empty slots until the next sort
+        for (int i = 0; i < size; i++) {
+            Entity entity = sortedEntities[i];
+            if (entity != null) processEntity(entity, dt);
         }
 
         pop();
@@ -65,51 +120,194 @@ public abstract class SortedIterativeSystem extends AbstractEntitySystem impleme
 
     @Override
     public void onBind(Registry registry) {
-        var view = registry.view(family);
+        entities = registry.group(family);
 
-        for (var entity : view) {
-            entities.add(entity);
-        }
-        sortedEntities.clear();
-
-        if (!view.isEmpty()) {
-            for (int i = 0; i < view.size(); i++) sortedEntities.add(view.get(i));
-            sortedEntities.sort(entityComparator);
-        }
+        clear();
+        added.addAll(entities);
 
-        sort = false;
+        sort = true;
+        sort();
         registry.register(this, family);
     }
 
     @Override
     public void onUnbind(Registry registry) {
-        registry.unregister(this);
-        sortedEntities.clear();
+        registry.unregister(this, family);
+        entities = EntitySet.EMPTY;
+        clear();
         sort = false;
     }
 
     @Override
     public void onEntityAdd(Entity e) {
-        sortedEntities.add(e);
-        sort = true;
+        ensurePositions(e.getId());
+        positions[e.getId()] = -1;
+        added.add(e);
     }
 
     @Override
     public void onEntityRemove(Entity e) {
-        sortedEntities.remove(e);
-        sort = true;
+        int index = positions[e.getId()];
+
+        if (index < 0) {
+            // by identity, equals compares entities structurally
+            for (int i = 0; i < added.size(); i++) {
+                if (added.get(i) == e) {
+                    added.remove(i);
+                    break;
+                }
+            }
+
+            return;
+        }
+
+        sortedEntities[index] = null;
+        removed++;
+    }
+
+    // drops the slots of removed entities in a single pass
+    private void compact() {
+        int j = 0;
+
+        for (int i = 0; i < size; i++) {
+            Entity e = sortedEntities[i];
+
+            if (e == null) {
+                continue;
+            }
+            if (i != j) {
+                sortedEntities[j] = e;
+                positions[e.getId()] = j;
+            }
+
+            j++;
+        }
+
+        Arrays.fill(sortedEntities, j, size, null);
+        size = j;
+        removed = 0;
+    }
+
+    // binary insertion for a handful of new entities
+    private void insert() {
+        ensureCapacity(size + added.size());
+
+        for (var e : added) {
+            int index = upperBound(e);
+
+            System.arraycopy(sortedEntities, index, sortedEntities, index + 1, size - index);
+            sortedEntities[index] = e;
+            size++;
+            reindex(index);
+        }
+
+        added.clear();
+    }
+
+    // sorts the new entities on their own and merges them in back to front
+    private void merge() {
+        added.sort(entityComparator);
+        ensureCapacity(size + added.size());
+
+        int i = size - 1;
+        int j = added.size() - 1;
+        int k = size + added.size() - 1;
+
+        while (j >= 0) {
+            if (i >= 0 && entityComparator.compare(sortedEntities[i], added.get(j)) > 0) {
+                sortedEntities[k--] = sortedEntities[i--];
+            } else {
+                sortedEntities[k--] = added.get(j--);
+            }
+        }
+
+        size += added.size();
+        added.clear();
+        reindex(i + 1);
+    }
+
+    private void append() {
+        ensureCapacity(size + added.size());
+
+        for (var e : added) {
+            sortedEntities[size++] = e;
+        }
+
+        added.clear();
+    }
+
+    private int upperBound(Entity e) {
+        int low = 0;
+        int high = size;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (entityComparator.compare(sortedEntities[mid], e) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    private void reindex(int from) {
+        for (int i = from; i < size; i++) {
+            int id = sortedEntities[i].getId();
+            ensurePositions(id);
+            positions[id] = i;
+        }
+    }
+
+    private void clear() {
+        Arrays.fill(sortedEntities, 0, size, null);
+        size = 0;
+        added.clear();
+        removed = 0;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > sortedEntities.length) {
+            sortedEntities = Arrays.copyOf(sortedEntities, Math.max(capacity, (sortedEntities.length * 3) / 2 + 1));
+        }
+    }
+
+    private void ensurePositions(int id) {
+        if (id >= positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(id + 1, (positions.length * 3) / 2 + 1));
+        }
     }
 
     public Family getFamily() {
         return family;
     }
-    
+
     public List<Entity> getEntities() {
         return entities;
     }
 
     @Override
     public Iterator<Entity> iterator() {
-        return sortedEntities.iterator();
+        sort();
+        return new SortedIterator();
+    }
+
+    private class SortedIterator implements Iterator<Entity> {
+
+        private int pointer = 0;
+
+        @Override
+        public boolean hasNext() {
+            return pointer < size;
+        }
+
+        @Override
+        public Entity next() {
+            if (pointer >= size) throw new NoSuchElementException("No more elements");
+
+            return sortedEntities[pointer++];
+        }
     }
 }
@@ -0,0 +1,151 @@
+package com.temprovich.inferno.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.ToIntFunction;
+
+/**
+ * Stable LSD radix sort over a single primitive key. Keys are extracted once per
+ * element and sorted as key/index pairs, so no comparator is invoked. The buffers
+ * are kept between calls; an instance must not be shared between threads.
+ */
+public final class RadixSorter<T> {
+
+    private static final int RADIX = 256;
+    private static final int PASSES = 4;
+
+    private final ToIntFunction<? super T> intKey;
+    private final ToFloatFunction<? super T> floatKey;
+
+    private int[] keys;
+    private int[] keyBuffer;
+    private int[] indices;
+    private int[] indexBuffer;
+    private Object[] scratch;
+    private final int[] counts;
+
+    private RadixSorter(ToIntFunction<? super T> intKey, ToFloatFunction<? super T> floatKey) {
+        this.intKey = intKey;
+        this.floatKey = floatKey;
+        this.keys = new int[0];
+        this.keyBuffer = new int[0];
+        this.indices = new int[0];
+        this.indexBuffer = new int[0];
+        this.scratch = new Object[0];
+        this.counts = new int[PASSES * RADIX];
+    }
+
+    public static <T> RadixSorter<T> ofInt(ToIntFunction<? super T> key) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+
+        return new RadixSorter<T>(key, null);
+    }
+
+    public static <T> RadixSorter<T> ofFloat(ToFloatFunction<? super T> key) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+
+        return new RadixSorter<T>(null, key);
+    }
+
+    public void sort(T[] array) {
+        sort(array, 0, array.length);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void sort(T[] array, int from, int to) {
+        int n = to - from;
+
+        if (n < 2) {
+            return;
+        }
+
+        ensureCapacity(n);
+
+        if (intKey != null) {
+            for (int i = 0; i < n; i++) {
+                keys[i] = intKey.applyAsInt(array[from + i]) ^ Integer.MIN_VALUE;
+                indices[i] = i;
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                int bits = Float.floatToIntBits(floatKey.applyAsFloat(array[from + i]));
+                keys[i] = bits ^ ((bits >> 31) | Integer.MIN_VALUE);
+                indices[i] = i;
+            }
+        }
+
+        // all histograms are built in a single pass over the keys
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < n; i++) {
+            int key = keys[i];
+            counts[key & 0xFF]++;
+            counts[RADIX + ((key >>> 8) & 0xFF)]++;
+            counts[2 * RADIX + ((key >>> 16) & 0xFF)]++;
+            counts[3 * RADIX + (key >>> 24)]++;
+        }
+
+        for (int pass = 0; pass < PASSES; pass++) {
+            int base = pass * RADIX;
+            int shift = pass * 8;
+
+            // skip passes in which every key shares the same digit
+            if (counts[base + ((keys[0] >>> shift) & 0xFF)] == n) {
+                continue;
+            }
+
+            int offset = 0;
+            for (int b = base; b < base + RADIX; b++) {
+                int count = counts[b];
+                counts[b] = offset;
+                offset += count;
+            }
+
+            for (int i = 0; i < n; i++) {
+                int key = keys[i];
+                int dst = counts[base + ((key >>> shift) & 0xFF)]++;
+                keyBuffer[dst] = key;
+                indexBuffer[dst] = indices[i];
+            }
+
+            int[] swap = keys;
+            keys = keyBuffer;
+            keyBuffer = swap;
+
+            swap = indices;
+            indices = indexBuffer;
+            indexBuffer = swap;
+        }
+
+        for (int i = 0; i < n; i++) {
+            scratch[i] = array[from + indices[i]];
+        }
+        for (int i = 0; i < n; i++) {
+            array[from + i] = (T) scratch[i];
+            scratch[i] = null;
+        }
+    }
+
+    public Comparator<T> comparator() {
+        if (intKey != null) {
+            return (a, b) -> Integer.compare(intKey.applyAsInt(a), intKey.applyAsInt(b));
+        }
+
+        return (a, b) -> Float.compare(floatKey.applyAsFloat(a), floatKey.applyAsFloat(b));
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (keys.length >= capacity) {
+            return;
+        }
+
+        keys = new int[capacity];
+        keyBuffer = new int[capacity];
+        indices = new int[capacity];
+        indexBuffer = new int[capacity];
+        scratch = new Object[capacity];
+    }
+}
@@ -0,0 +1,8 @@
+package com.temprovich.inferno.util;
+
+@FunctionalInterface
+public interface ToFloatFunction<T> {
+
+    public float applyAsFloat(T value);
+    
+}
@@ -0,0 +1,124 @@
+package test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import com.temprovich.inferno.Component;
+import com.temprovich.inferno.Entity;
+import com.temprovich.inferno.Inferno;
+import com.temprovich.inferno.Registry;
+
+/**
+ * Saves a populated world to a snapshot and loads it into an empty registry.
+ * Usage: {@code SnapshotBenchmark [entityCount] [path]}
+ */
+public class SnapshotBenchmark {
+
+    // simulation parameters
+
+    private static final int DEFAULT_ENTITY_COUNT = 2_000_000;
+    private static final int RUNS = 3;
+
+    // end simulation parameters
+
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ENTITY_COUNT;
+        Path path = args.length > 1 ? Paths.get(args[1]) : Files.createTempFile("inferno", ".snapshot");
+
+        Registry world = populate(new Registry(count), count);
+
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            world.save(path);
+            long saved = System.nanoTime();
+
+            Registry loaded = codecs(new Registry(count));
+            loaded.load(path);
+            long end = System.nanoTime();
+
+            System.out.printf("run %d: %d entities, %d bytes, save %d ms, load %d ms%n",
+                run + 1, loaded.size(), Files.size(path), (saved - start) / 1_000_000, (end - saved) / 1_000_000);
+        }
+
+        if (args.length <= 1) {
+            Files.delete(path);
+        }
+    }
+
+    private static Registry populate(Registry registry, int count) {
+        codecs(registry);
+        Random random = new Random(42);
+
+        for (int i = 0; i < count; i++) {
+            Entity entity = Inferno.create();
+            entity.add(new TransformComponent(random.nextInt(4096), random.nextInt(4096), random.nextFloat()));
+
+            if ((i & 1) == 0) {
+                entity.add(new VelocityComponent(random.nextFloat(), random.nextFloat()));
+            }
+            if ((i & 7) == 0) {
+                entity.add(new NameComponent("Entity " + i));
+            }
+
+            entity.flags = random.nextInt(16);
+            registry.add(entity);
+        }
+
+        return registry;
+    }
+
+    private static Registry codecs(Registry registry) {
+        registry.registerCodec(TransformComponent.class);
+        registry.registerCodec(VelocityComponent.class);
+        registry.registerCodec(NameComponent.class);
+        return registry;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Test Components ////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////
+
+    private static final class TransformComponent extends Component {
+
+            public int x;
+            public int y;
+            public float rotation;
+
+            @SuppressWarnings("unused")
+            public TransformComponent() {}
+
+            public TransformComponent(int x, int y, float rotation) {
+                this.x = x;
+                this.y = y;
+                this.rotation = rotation;
+            }
+    }
+
+    private static final class VelocityComponent extends Component {
+
+            public float dx, dy;
+
+            @SuppressWarnings("unused")
+            public VelocityComponent() {}
+
+            public VelocityComponent(float dx, float dy) {
+                this.dx = dx;
+                this.dy = dy;
+            }
+    }
+
+    private static final class NameComponent extends Component {
+
+            public String name;
+
+            @SuppressWarnings("unused")
+            public NameComponent() {}
+
+            public NameComponent(String name) {
+                this.name = name;
+            }
+    }
+}